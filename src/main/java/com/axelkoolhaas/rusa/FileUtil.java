@@ -1,6 +1,10 @@
 package com.axelkoolhaas.rusa;
 
+import com.axelkoolhaas.rusa.model.json.JsonMethod;
+import com.axelkoolhaas.rusa.model.json.JsonNode;
 import com.axelkoolhaas.rusa.model.json.JsonNodes;
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+import com.axelkoolhaas.rusa.model.table.DistanceTableWriter;
 import com.google.gson.Gson;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -123,4 +127,29 @@ public class FileUtil {
         }
         return null;
     }
+
+    /**
+     * Loads the distance table, memory-mapped if it is a binary table, otherwise converted from the JSON
+     * distance tree.
+     */
+    public static DistanceTable readDistanceTable(String path) {
+        if (DistanceTable.isDistanceTable(Paths.get(path))) {
+            try {
+                return DistanceTable.open(Paths.get(path));
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("Could not read distance table: {}", e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        DistanceTableWriter writer = new DistanceTableWriter();
+        for (JsonNode jsonNode : readJsonCG(path).getClasses()) {
+            for (JsonMethod jsonMethod : jsonNode.getMethods()) {
+                if (jsonMethod.getDistance() != null) {
+                    writer.add(jsonNode.getName(), jsonMethod.getName(), jsonMethod.getDistance());
+                }
+            }
+        }
+        return DistanceTable.wrap(writer.toByteBuffer());
+    }
 }
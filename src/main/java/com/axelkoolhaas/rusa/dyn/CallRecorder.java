@@ -1,30 +1,96 @@
 package com.axelkoolhaas.rusa.dyn;
 
-import com.axelkoolhaas.rusa.FileUtil;
+import com.axelkoolhaas.rusa.dyn.coverage.CodeCoverageStore;
+import com.axelkoolhaas.rusa.dyn.coverage.SharedMemoryByteBufferCodeCoverageStore;
+import com.axelkoolhaas.rusa.dyn.coverage.TcpCodeCoverageStore;
 import com.axelkoolhaas.rusa.model.json.JsonDTO;
-import com.axelkoolhaas.rusa.model.json.JsonMethod;
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
 import com.google.gson.Gson;
 import lombok.Getter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.Collections;
-import java.util.List;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 public class CallRecorder {
     private static final Logger logger = LogManager.getLogger(CallRecorder.class);
     private static final Gson gson = new Gson();
     private static CallRecorder instance;
-    // A map of class names to a list of method names which should have distance
+    // The methods which should have distance
     @Getter
-    private final Map<String, List<JsonMethod>> targets;
+    private final DistanceTable targets;
     @Getter
     private final Map<String, String> settingsMap;
+    // Settings resolved once, read on every hit
+    @Getter
+    private final Mode mode;
+    // Results file, written in the background
+    private final ResultsWriter results;
+    // Optional coverage channel next to the mode
+    private final CodeCoverageStore coverage;
+
+    public enum Mode {
+        SYNERGY, STANDALONE;
+
+        public static Mode fromSetting(String mode) {
+            return Arrays.stream(values())
+                    .filter(m -> m.name().equalsIgnoreCase(mode))
+                    .findFirst()
+                    .orElseGet(() -> {
+                        logger.error("Unrecognized mode: {}", mode);
+                        System.exit(1);
+                        return null;
+                    });
+        }
+    }
 
-    private CallRecorder(Map<String, List<JsonMethod>> targets, Map<String,String> settingsMap) {
+    private CallRecorder(DistanceTable targets, Map<String,String> settingsMap) {
         this.targets = targets;
         this.settingsMap = settingsMap;
+        this.mode = Mode.fromSetting(settingsMap.get(PreEntry.MODE));
+        this.results = createResultsWriter(settingsMap, targets);
+        this.coverage = createCoverageStore(settingsMap, targets);
+    }
+
+    private static ResultsWriter createResultsWriter(Map<String, String> settingsMap, DistanceTable targets) {
+        String resultsPath = settingsMap.get(PreEntry.RESULTS_PATH);
+        if (resultsPath == null) {
+            return null;
+        }
+        try {
+            return new ResultsWriter(resultsPath, targets,
+                    Long.parseLong(settingsMap.get(PreEntry.RESULTS_FLUSH_INTERVAL)),
+                    Long.parseLong(settingsMap.get(PreEntry.RESULTS_MAX_SIZE)));
+        } catch (NumberFormatException e) {
+            logger.error("Invalid {} or {}", PreEntry.RESULTS_FLUSH_INTERVAL, PreEntry.RESULTS_MAX_SIZE);
+        } catch (IOException e) {
+            logger.error("Could not open {}: {}", resultsPath, e.getMessage(), e);
+        }
+        System.exit(1);
+        return null;
+    }
+
+    private static CodeCoverageStore createCoverageStore(Map<String, String> settingsMap, DistanceTable targets) {
+        String coverage = settingsMap.get(PreEntry.COVERAGE);
+        if (coverage == null) {
+            return null;
+        }
+        if (coverage.equals("shm")) {
+            SharedMemoryByteBufferCodeCoverageStore.initialize(targets);
+            return SharedMemoryByteBufferCodeCoverageStore.getInstance();
+        }
+        try {
+            return TcpCodeCoverageStore.start(coverage, targets,
+                    Long.parseLong(settingsMap.get(PreEntry.COVERAGE_FLUSH_INTERVAL)));
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid {} or {}: {}", PreEntry.COVERAGE, PreEntry.COVERAGE_FLUSH_INTERVAL, e.getMessage());
+        } catch (IOException e) {
+            logger.error("Could not bind {}: {}", coverage, e.getMessage(), e);
+        }
+        System.exit(1);
+        return null;
     }
 
     public static CallRecorder getInstance() {
@@ -35,7 +101,7 @@ public class CallRecorder {
         return instance;
     }
 
-    public static void setInstance(Map<String, List<JsonMethod>> targets, Map<String,String> settingsMap) {
+    public static void setInstance(DistanceTable targets, Map<String,String> settingsMap) {
         if (instance != null) {
             logger.error("CallRecorder already set.");
             System.exit(1);
@@ -44,58 +110,52 @@ public class CallRecorder {
     }
 
     public static void beforeMethod(String type, String method) {
-        logger.debug("hit: " + type + " " + method);
+        logger.trace("hit: {} {}", type, method);
 
         // Solution for AsmVisitorWrapper inaccuracy
-        Map<String, List<JsonMethod>> targets = CallRecorder.getInstance().getTargets();
         // Verify if targets contains type and method
-        JsonMethod target = targets != null ? targets.getOrDefault(type, Collections.emptyList())
-                .stream()
-                .filter(m -> m.getName().equals(method))
-                .findFirst()
-                .orElse(null) : null;
+        CallRecorder recorder = instance;
+        int target = recorder.targets.lookup(type, method);
 
-        if (target == null) {
+        if (target == DistanceTable.NOT_FOUND) {
             // not an actual target
             return;
         }
 
-//        ZmqServer.getInstance().publish(type + ":" + method);
-//        System.out.println(target.getDistance());
-//        ZmqServer.getInstance().publish(target.getDistance());
-
-        // Retrieve settings
-        Map<String, String> settingsMap = CallRecorder.getInstance().getSettingsMap();
-        String mode = settingsMap.get(PreEntry.MODE);
-        String resultsPath = settingsMap.get(PreEntry.RESULTS_PATH);
+        recorder.record(target);
+    }
 
-        // Send/store CFG feedback
-        JsonDTO jsonDTO = new JsonDTO(type, method, target.getDistance(), null);
-        String json = gson.toJson(jsonDTO);
+    /**
+     * Records a hit of a method with distance.
+     * @param id method id in the distance table
+     */
+    public static void beforeMethod(int id) {
+        instance.record(id);
+    }
 
-        switch (mode) {
-            case "synergy":
-                ZmqServer.getInstance().addFeedback(jsonDTO);
-                break;
+    private void record(int id) {
+        if (this.coverage != null || this.mode == Mode.SYNERGY) {
+            int edge = EdgeCoverage.next(id);
 
-            case "standalone":
-                logger.info(json);
-                break;
+            if (this.coverage != null) {
+                this.coverage.increment(id, edge);
+            }
 
-            default:
-                logger.error("Unrecognized mode: {}", mode);
-                System.exit(1);
-                break;
+            // Send/store CFG feedback
+            if (this.mode == Mode.SYNERGY) {
+                ZmqServer.getInstance().addFeedback(id, edge);
+            }
         }
 
         // Write to file if specified
-        if (resultsPath != null) {
-            try {
-                FileUtil.appendText(resultsPath, json, true);
-            } catch (Exception e) {
-                logger.error("Could not write to {}: {}", resultsPath, e.getMessage(), e);
-                System.exit(1);
-            }
+        if (this.results != null) {
+            this.results.add(id);
+        }
+
+        if (this.mode == Mode.STANDALONE) {
+            JsonDTO jsonDTO = new JsonDTO(this.targets.getClassName(id), this.targets.getMethodName(id),
+                    this.targets.getDistance(id), null);
+            logger.info(gson.toJson(jsonDTO));
         }
     }
 
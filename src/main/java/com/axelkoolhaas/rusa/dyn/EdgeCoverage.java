@@ -0,0 +1,57 @@
+package com.axelkoolhaas.rusa.dyn;
+
+/**
+ * AFL style edge coverage: a call from method a to method b, both with distance, lands in slot
+ * {@code location(b) ^ (location(a) >>> 1)} of a fixed size bitmap of saturating byte counters. The shift keeps
+ * a -> b and b -> a apart, the previous location is tracked per thread.
+ * The bitmaps themselves live with the feedback they belong to, see {@link #hit(byte[], int)}.
+ */
+public class EdgeCoverage {
+    // Constants
+    public static final int MAP_SIZE = 1 << 16;
+    private static final int MASK = MAP_SIZE - 1;
+
+    // Fields
+    // previous location of this thread, shifted
+    private static final ThreadLocal<int[]> previous = ThreadLocal.withInitial(() -> new int[1]);
+
+    // Constructor
+    private EdgeCoverage() {
+    }
+
+    // Methods
+    /**
+     * Moves this thread to the method and returns the edge it took.
+     * @param id method id in the distance table
+     * @return slot in the bitmap
+     */
+    public static int next(int id) {
+        int[] prev = previous.get();
+        int location = location(id);
+        int edge = location ^ prev[0];
+        prev[0] = location >>> 1;
+        return edge;
+    }
+
+    /**
+     * Starts a new call chain on this thread, e.g. at the start of a request on a pooled thread.
+     */
+    public static void reset() {
+        previous.get()[0] = 0;
+    }
+
+    /**
+     * Saturating increment, concurrent increments may get lost like in AFL.
+     */
+    public static void hit(byte[] bitmap, int edge) {
+        if (bitmap[edge] != -1) {
+            bitmap[edge]++;
+        }
+    }
+
+    private static int location(int id) {
+        // spread consecutive ids over the bitmap, id 0 shouldn't land on the slot of a thread's first call
+        int hash = (id + 1) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & MASK;
+    }
+}
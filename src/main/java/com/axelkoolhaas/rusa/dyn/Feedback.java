@@ -0,0 +1,116 @@
+package com.axelkoolhaas.rusa.dyn;
+
+import com.axelkoolhaas.rusa.model.json.JsonDTO;
+import com.axelkoolhaas.rusa.model.json.JsonSummary;
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hits of one request: the ids of the methods with distance that were hit, in order of first hit, and how often.
+ * Also the edges between them that were taken, as the non-zero slots of the edge bitmap ({@link EdgeCoverage}).
+ */
+public class Feedback {
+    // Constants
+    public static final int HISTOGRAM_BUCKETS = 16;
+
+    // Fields
+    private final int[] ids;
+    private final int[] hits;
+    private final int[] edges;
+    private final int[] edgeHits;
+
+    // Constructor
+    public Feedback(int[] ids, int[] hits, int[] edges, int[] edgeHits) {
+        this.ids = ids;
+        this.hits = hits;
+        this.edges = edges;
+        this.edgeHits = edgeHits;
+    }
+
+    // Getters and setters
+    public int size() {
+        return this.ids.length;
+    }
+
+    public int getId(int index) {
+        return this.ids[index];
+    }
+
+    public int getHits(int index) {
+        return this.hits[index];
+    }
+
+    public int getEdgeCount() {
+        return this.edges.length;
+    }
+
+    public int getEdge(int index) {
+        return this.edges[index];
+    }
+
+    public int getEdgeHits(int index) {
+        return this.edgeHits[index];
+    }
+
+    // Methods
+    /**
+     * Adds up this feedback and later feedback, methods stay in order of first hit and edge hits saturate like in
+     * the bitmap.
+     */
+    public Feedback merge(Feedback later) {
+        Map<Integer, Integer> methods = new LinkedHashMap<>();
+        Map<Integer, Integer> edges = new LinkedHashMap<>();
+        for (Feedback feedback : List.of(this, later)) {
+            for (int i = 0; i < feedback.ids.length; i++) {
+                methods.merge(feedback.ids[i], feedback.hits[i], Integer::sum);
+            }
+            for (int i = 0; i < feedback.edges.length; i++) {
+                edges.merge(feedback.edges[i], feedback.edgeHits[i], (a, b) -> Math.min(a + b, 0xFF));
+            }
+        }
+
+        return new Feedback(
+                methods.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                methods.values().stream().mapToInt(Integer::intValue).toArray(),
+                edges.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                edges.values().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Resolves the ids and adds the aggregates over all hits.
+     */
+    public JsonSummary toJsonSummary(DistanceTable targets) {
+        long totalHits = 0;
+        double distanceSum = 0;
+        double minDistance = Double.MAX_VALUE;
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        List<JsonDTO> methods = new ArrayList<>(this.ids.length);
+
+        for (int i = 0; i < this.ids.length; i++) {
+            int id = this.ids[i];
+            double distance = targets.getDistance(id);
+
+            totalHits += this.hits[i];
+            distanceSum += this.hits[i] * distance;
+            minDistance = Math.min(minDistance, distance);
+            // rounded up, only targets end up in the first bucket
+            histogram[(int) Math.min(Math.ceil(distance), HISTOGRAM_BUCKETS - 1)] += this.hits[i];
+            methods.add(new JsonDTO(targets.getClassName(id), targets.getMethodName(id), distance,
+                    this.hits[i], null));
+        }
+
+        Map<Integer, Integer> edges = new LinkedHashMap<>();
+        for (int i = 0; i < this.edges.length; i++) {
+            edges.put(this.edges[i], this.edgeHits[i]);
+        }
+
+        return totalHits == 0
+                ? new JsonSummary(0, null, null, histogram, methods, edges)
+                : new JsonSummary(totalHits, minDistance, distanceSum / totalHits, histogram, methods,
+                        edges);
+    }
+}
@@ -0,0 +1,171 @@
+package com.axelkoolhaas.rusa.dyn;
+
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Aggregates hits in place instead of keeping one entry per hit: a hit count per method, the order in which
+ * methods were first hit and the edge bitmap ({@link EdgeCoverage}). Producers never block, counters are striped
+ * by thread id so hot methods don't make all threads contend on one counter.
+ * Hits go into the active window; a drain swaps in the spare window, waits for producers that are still inside
+ * the old one and collects it, after which it becomes the next spare (double-buffering).
+ */
+public class FeedbackAggregator {
+    // Constants
+    private static final int MAX_STRIPES = 16;
+    // ints between the writer counters of two stripes, so they don't share a cache line
+    private static final int PADDING = 16;
+
+    // Fields
+    private final int methodCount;
+    private final int stripeMask;
+    private final AtomicReference<Window> active;
+    // Consumer only
+    private Window spare;
+
+    // Constructor
+    public FeedbackAggregator(DistanceTable targets) {
+        this(targets, Runtime.getRuntime().availableProcessors());
+    }
+
+    public FeedbackAggregator(DistanceTable targets, int stripes) {
+        int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, stripes) * 2 - 1));
+        this.methodCount = targets.size();
+        this.stripeMask = stripeCount - 1;
+        this.active = new AtomicReference<>(new Window(targets.size(), stripeCount));
+        this.spare = new Window(targets.size(), stripeCount);
+    }
+
+    // Methods
+    /**
+     * Called by the instrumented threads.
+     * @param id method id in the distance table
+     * @param edge slot in the edge bitmap
+     */
+    public void add(int id, int edge) {
+        int stripe = (int) Thread.currentThread().getId() & this.stripeMask;
+
+        while (true) {
+            Window window = this.active.get();
+            window.writers.incrementAndGet(stripe * PADDING);
+            try {
+                // swapped out in between, the consumer might not wait for us
+                if (this.active.get() != window) {
+                    continue;
+                }
+                window.hit(stripe, id);
+                EdgeCoverage.hit(window.edges, edge);
+                return;
+            } finally {
+                window.writers.decrementAndGet(stripe * PADDING);
+            }
+        }
+    }
+
+    /**
+     * Takes and resets the hits since the last drain. Only one thread may drain at a time.
+     */
+    public Feedback drain() {
+        Window window = this.active.getAndSet(this.spare);
+
+        // producers that saw the window before the swap are about to finish, later ones retry
+        for (int stripe = 0; stripe <= this.stripeMask; stripe++) {
+            while (window.writers.get(stripe * PADDING) != 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        Feedback feedback = collect(window);
+        this.spare = window;
+        return feedback;
+    }
+
+    /**
+     * Also resets the window, only the counters of methods that were hit need clearing.
+     */
+    private Feedback collect(Window window) {
+        // methods in order of first hit
+        int[] ids = new int[window.order.get()];
+        for (int id = 0; id < this.methodCount && ids.length > 0; id++) {
+            int order = window.firstHit.get(id);
+            if (order != 0) {
+                ids[order - 1] = id;
+                window.firstHit.set(id, 0);
+            }
+        }
+        window.order.set(0);
+
+        int[] hits = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            hits[i] = window.takeCount(ids[i]);
+        }
+
+        // edges are only taken with a method hit, an idle window doesn't need the bitmap scan
+        if (ids.length == 0) {
+            return new Feedback(ids, hits, ids, hits);
+        }
+
+        // only the slots that were hit are listed
+        int edgeCount = 0;
+        for (byte edge : window.edges) {
+            if (edge != 0) {
+                edgeCount++;
+            }
+        }
+        int[] edges = new int[edgeCount];
+        int[] edgeHits = new int[edgeCount];
+        for (int slot = 0, i = 0; i < edgeCount; slot++) {
+            if (window.edges[slot] != 0) {
+                edges[i] = slot;
+                edgeHits[i++] = Byte.toUnsignedInt(window.edges[slot]);
+                window.edges[slot] = 0;
+            }
+        }
+
+        return new Feedback(ids, hits, edges, edgeHits);
+    }
+
+    private static class Window {
+        private final int methodCount;
+        private final int stripeCount;
+        // hits per stripe and method, stripe * method count + id
+        private final AtomicIntegerArray counts;
+        // order of the first hit per method starting at 1, 0 if not hit
+        private final AtomicIntegerArray firstHit;
+        private final AtomicInteger order;
+        // producers currently using this window per stripe, their hits are published when they leave
+        private final AtomicIntegerArray writers;
+        // saturating edge counters, published to the consumer by leaving the window
+        private final byte[] edges;
+
+        private Window(int methodCount, int stripeCount) {
+            this.methodCount = methodCount;
+            this.stripeCount = stripeCount;
+            this.counts = new AtomicIntegerArray(methodCount * stripeCount);
+            this.firstHit = new AtomicIntegerArray(methodCount);
+            this.order = new AtomicInteger();
+            this.writers = new AtomicIntegerArray(stripeCount * PADDING);
+            this.edges = new byte[EdgeCoverage.MAP_SIZE];
+        }
+
+        private void hit(int stripe, int id) {
+            this.counts.incrementAndGet(stripe * this.methodCount + id);
+
+            // only the first hit of a method takes a place in the order, -1 marks it as claimed meanwhile
+            if (this.firstHit.get(id) == 0 && this.firstHit.compareAndSet(id, 0, -1)) {
+                this.firstHit.set(id, this.order.incrementAndGet());
+            }
+        }
+
+        private int takeCount(int id) {
+            int hits = 0;
+            for (int stripe = 0; stripe < this.stripeCount; stripe++) {
+                hits += this.counts.getAndSet(stripe * this.methodCount + id, 0);
+            }
+            return hits;
+        }
+    }
+}
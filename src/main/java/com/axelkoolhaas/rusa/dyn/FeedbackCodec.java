@@ -0,0 +1,87 @@
+package com.axelkoolhaas.rusa.dyn;
+
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary feedback protocol, all numbers are unsigned LEB128 varints except distances, which are little endian IEEE 754
+ * floats, and strings are a length followed by UTF-8.
+ * <pre>
+ * dictionary  class count, class names, method count, (class index, method name, distance) per method id
+ * feedback    method count, (method id, hits) per method in order of first hit,
+ *             edge count, (edge, hits) per non-zero slot of the edge bitmap
+ * </pre>
+ * The dictionary is sent once in the handshake, so feedback only refers to methods by id.
+ */
+public class FeedbackCodec {
+
+    private FeedbackCodec() {
+    }
+
+    public static byte[] encodeDictionary(DistanceTable targets) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Map<String, Integer> classIndexes = new HashMap<>();
+        for (String className : targets.getClassNames()) {
+            classIndexes.put(className, classIndexes.size());
+        }
+
+        writeVarint(out, classIndexes.size());
+        for (String className : targets.getClassNames()) {
+            writeString(out, className);
+        }
+
+        writeVarint(out, targets.size());
+        for (int id = 0; id < targets.size(); id++) {
+            writeVarint(out, classIndexes.get(targets.getClassName(id)));
+            writeString(out, targets.getMethodName(id));
+            writeFloat(out, (float) targets.getDistance(id));
+        }
+
+        return out.toByteArray();
+    }
+
+    public static byte[] encode(Feedback feedback) {
+        // at most 5 bytes per varint
+        ByteArrayOutputStream out = new ByteArrayOutputStream(10 + 10 * (feedback.size() + feedback.getEdgeCount()));
+
+        writeVarint(out, feedback.size());
+        for (int i = 0; i < feedback.size(); i++) {
+            writeVarint(out, feedback.getId(i));
+            writeVarint(out, feedback.getHits(i));
+        }
+
+        writeVarint(out, feedback.getEdgeCount());
+        for (int i = 0; i < feedback.getEdgeCount(); i++) {
+            writeVarint(out, feedback.getEdge(i));
+            writeVarint(out, feedback.getEdgeHits(i));
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    static void writeFloat(ByteArrayOutputStream out, float value) {
+        int bits = Float.floatToIntBits(value);
+        for (int i = 0; i < Float.BYTES; i++) {
+            out.write(bits >>> 8 * i);
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -2,21 +2,26 @@ package com.axelkoolhaas.rusa.dyn;
 
 import com.axelkoolhaas.rusa.AnalysisAssistant;
 import com.axelkoolhaas.rusa.FileUtil;
+import com.axelkoolhaas.rusa.dyn.advice.MethodId;
+import com.axelkoolhaas.rusa.dyn.advice.MethodIdAdvice;
+import com.axelkoolhaas.rusa.dyn.advice.MethodIdMapping;
 import com.axelkoolhaas.rusa.dyn.advice.MethodTracerAdvice;
-import com.axelkoolhaas.rusa.model.json.JsonMethod;
-import com.axelkoolhaas.rusa.model.json.JsonNode;
-import com.axelkoolhaas.rusa.model.json.JsonNodes;
+import com.axelkoolhaas.rusa.dyn.advice.ServletAdvice;
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.asm.Advice;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.matcher.ElementMatchers;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -26,22 +31,37 @@ public class PreEntry {
     public static final String DISTANCE_TREE = "distanceTree";
     public static final String MODE = "mode";
     public static final String RESULTS_PATH = "resultsPath";
+    public static final String RESULTS_FLUSH_INTERVAL = "resultsFlushInterval";
+    public static final String RESULTS_MAX_SIZE = "resultsMaxSize";
+    public static final String ADVICE = "advice";
+    public static final String PROTOCOL = "protocol";
+    public static final String COVERAGE = "coverage";
+    public static final String COVERAGE_FLUSH_INTERVAL = "coverageFlushInterval";
+    private static final String DEFAULT_DISTANCE_TABLE = "distance_tree.bin";
+    private static final String DEFAULT_DISTANCE_TREE = "distance_tree.json";
+    private static final String[] SERVLET_CLASSES = {
+            "javax.servlet.http.HttpServlet", "jakarta.servlet.http.HttpServlet"};
+    private static final String[] FILTER_CHAIN_INTERFACES = {
+            "javax.servlet.FilterChain", "jakarta.servlet.FilterChain"};
+    private static final String[] SERVLET_REQUEST_INTERFACES = {
+            "javax.servlet.ServletRequest", "jakarta.servlet.ServletRequest"};
 
     private static final Logger logger = LogManager.getLogger(PreEntry.class);
 
     /**
      * This is the entry point for the agent.
      * It is called by the JVM when the agent is loaded.
-     * @param arg The path to the target.json file
+     * @param arg The comma-separated settings, see {@link #setSettings(String)}
      * @param inst The instrumentation object
      */
     public static void premain(String arg, Instrumentation inst) throws IOException {
         Map<String,String> settingsMap = setSettings(arg);
 
-        JsonNodes jsonCG = FileUtil.readJsonCG(settingsMap.get(DISTANCE_TREE));
-        final List<String> classTargets = PreEntry.getClassTargets(jsonCG);
-        final List<String> methodTargets = PreEntry.getMethodTargets(jsonCG);
-        final Map<String, List<JsonMethod>> targets = PreEntry.getTargets(jsonCG);
+        // the table only holds methods with distance
+        DistanceTable targets = FileUtil.readDistanceTable(settingsMap.get(DISTANCE_TREE));
+        final String[] classTargets = targets.getClassNames().toArray(new String[0]);
+        final String[] methodTargets = targets.getMethodNames().toArray(new String[0]);
+        logger.info("Loaded {} methods with distance in {} classes.", targets.size(), classTargets.length);
 
         CallRecorder.setInstance(targets, settingsMap);
 
@@ -64,14 +84,13 @@ public class PreEntry {
 //                        .or(ElementMatchers.nameStartsWith("org.springframework")))
 
                 // we instrument only classes with distance
-                .type(ElementMatchers.namedOneOf(classTargets.toArray(new String[0])))
+                .type(ElementMatchers.namedOneOf(classTargets))
 
                 // declare actual transformer
                 .transform((builder, typeDescription, classLoader, module, protectionDomain) -> builder
 //                        .visit(Advice.to(MethodTracer.class).on(ElementMatchers.isMethod())))
                         // (TODO maybe use different advice for constructors)
-                        .visit(Advice.to(MethodTracerAdvice.class)
-                                .on(ElementMatchers.namedOneOf(methodTargets.toArray(new String[0]))))
+                        .visit(createAdvice(settingsMap.get(ADVICE), targets, methodTargets))
                         );
 //                        .method(method -> method.getDeclaredAnnotations().isAnnotationPresent(MyCustomAnnotation.class))
 //                        .visit(Advice.to(MethodTracer.class).on(MethodDescription::isMethod)))
@@ -81,7 +100,22 @@ public class PreEntry {
 
 
         System.out.print(RUSA_LOGO);
-        if (settingsMap.get(MODE).equals("synergy")) {
+        if (CallRecorder.getInstance().getMode() == CallRecorder.Mode.SYNERGY) {
+            // tag hits with the fuzzer request that caused them
+            // the public entry points, filters run inside the chain and subclasses can't bypass them
+            agentBuilder = agentBuilder
+                    .type(ElementMatchers.<TypeDescription>namedOneOf(SERVLET_CLASSES)
+                            .or(ElementMatchers.<TypeDescription>nameContains("Chain")
+                                    .and(ElementMatchers.not(ElementMatchers.isInterface()))
+                                    .and(ElementMatchers.hasSuperType(
+                                            ElementMatchers.namedOneOf(FILTER_CHAIN_INTERFACES)))))
+                    .transform((builder, typeDescription, classLoader, module, protectionDomain) -> builder
+                            .visit(Advice.to(ServletAdvice.class).on(ElementMatchers.isPublic()
+                                    .and(ElementMatchers.named("service").or(ElementMatchers.named("doFilter")))
+                                    .and(ElementMatchers.takesArguments(2))
+                                    .and(ElementMatchers.takesArgument(0,
+                                            ElementMatchers.namedOneOf(SERVLET_REQUEST_INTERFACES))))));
+
             Thread thread = new Thread(ZmqServer.getInstance());
             thread.start();
         } else {
@@ -93,43 +127,28 @@ public class PreEntry {
     }
 
     /**
-     * Returns a list of all classes that have a method with distance
-     */
-    public static List<String> getClassTargets(JsonNodes jn) {
-        return jn.getClasses()
-                .stream()
-                .filter(jsonNode -> jsonNode.getMethods()
-                        .stream()
-                        .anyMatch(jsonMethod -> jsonMethod.getDistance() != null))
-                .map(JsonNode::getName)
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Returns a list of all methods with distance
+     * Inlined advice with the method id as a constant by default, the debug advice is called with the method's
+     * strings and arguments.
      */
-    public static List<String> getMethodTargets(JsonNodes jn) {
-        return jn.getClasses()
-                .stream()
-                .flatMap(node -> node.getMethods()
-                        .stream()
-                        .filter(jsonMethod -> jsonMethod.getDistance() != null))
-                .map(JsonMethod::getName)
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Returns a map of all classes with methods with distance
-     */
-//    public static Map<String,List<String>> getTargets(JsonNodes jn) {
-    public static Map<String,List<JsonMethod>> getTargets(JsonNodes jn) {
-        return jn.getClasses()
-                .stream()
-                .filter(jsonNode -> jsonNode.getMethods()
-                        .stream()
-                        .anyMatch(jsonMethod -> jsonMethod.getDistance() != null))
-                .collect(Collectors.toMap(JsonNode::getName, JsonNode::getMethods)
-                );
+    private static AsmVisitorWrapper createAdvice(String advice, DistanceTable targets, String[] methodTargets) {
+        switch (advice) {
+            case "inline":
+                return Advice.withCustomMapping()
+                        .bind(MethodId.class, new MethodIdMapping(targets))
+                        .to(MethodIdAdvice.class)
+                        .on(ElementMatchers.isMethod().and(method -> targets.lookup(
+                                method.getDeclaringType().asErasure().getName(),
+                                method.getInternalName()) != DistanceTable.NOT_FOUND));
+
+            case "debug":
+                return Advice.to(MethodTracerAdvice.class)
+                        .on(ElementMatchers.namedOneOf(methodTargets));
+
+            default:
+                logger.error("Unrecognized advice: {}", advice);
+                System.exit(1);
+                return null;
+        }
     }
 
     public static Map<String,String> setSettings(String arg) {
@@ -137,16 +156,29 @@ public class PreEntry {
                 Usage:
                 java -javaagent:rusa.jar=args -jar restWebApp.jar
                 where args is a comma-separated list of arguments:
-                    %s=<tree>.json\t# default is distance_tree.json
+                    %s=<tree>.bin|<tree>.json\t# default is distance_tree.bin, or distance_tree.json if missing
                     %s=<synergy,standalone>\t# default is synergy, standalone to operate without Rusa frontend
                     %s=<path>.result\t# optional file to store results
-                """, DISTANCE_TREE, MODE, RESULTS_PATH);
+                    %s=<ms>\t# default is 1000, how often the results are flushed to the file
+                    %s=<bytes>\t# optional, rotate the results file to <path>.result.1 beyond this size
+                    %s=<inline,debug>\t# default is inline, debug to call the advice with method details
+                    %s=<sync,async>\t# default is sync, async to pipeline requests on a ROUTER socket
+                    %s=shm|tcp:<port>|unix:<path>\t# optional, also count hits in shared memory or stream them
+                    %s=<ms>\t# default is 5, how often hits are streamed with tcp or unix coverage
+                """, DISTANCE_TREE, MODE, RESULTS_PATH, RESULTS_FLUSH_INTERVAL, RESULTS_MAX_SIZE,
+                ADVICE, PROTOCOL, COVERAGE, COVERAGE_FLUSH_INTERVAL);
 
         Map<String,String> argumentsMap = new HashMap<>();
 
         // Default values
-        argumentsMap.put(DISTANCE_TREE, "distance_tree.json");
+        argumentsMap.put(DISTANCE_TREE, Files.exists(Paths.get(DEFAULT_DISTANCE_TABLE))
+                ? DEFAULT_DISTANCE_TABLE : DEFAULT_DISTANCE_TREE);
         argumentsMap.put(MODE, "synergy");
+        argumentsMap.put(ADVICE, "inline");
+        argumentsMap.put(PROTOCOL, "sync");
+        argumentsMap.put(RESULTS_FLUSH_INTERVAL, "1000");
+        argumentsMap.put(RESULTS_MAX_SIZE, "0");
+        argumentsMap.put(COVERAGE_FLUSH_INTERVAL, "5");
 
         // If no arguments are given, return default values
         if (arg == null) {
@@ -0,0 +1,133 @@
+package com.axelkoolhaas.rusa.dyn;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Hits of one tagged request, see {@link RequestScope}.
+ * A request mostly runs on one thread and hits few distinct methods and edges, so an uncontended lock and small
+ * hash maps of method id and edge to hits are cheaper than the striped {@link FeedbackAggregator}.
+ */
+public class RequestFeedback {
+    // Constants
+    // same as a saturated bitmap counter
+    private static final int MAX_EDGE_HITS = 0xFF;
+
+    // Fields
+    @Getter
+    private final long requestId;
+    // set once a servlet picked up the request, otherwise its hits are untagged
+    @Getter
+    private volatile boolean tagged = false;
+    private final Counts methods = new Counts();
+    private final Counts edges = new Counts();
+
+    // Constructor
+    public RequestFeedback(long requestId) {
+        this.requestId = requestId;
+    }
+
+    // Methods
+    void tag() {
+        this.tagged = true;
+    }
+
+    /**
+     * @param id method id in the distance table
+     * @param edge slot in the edge bitmap, see {@link EdgeCoverage}
+     */
+    public synchronized void add(int id, int edge) {
+        this.methods.add(id);
+        this.edges.add(edge);
+    }
+
+    /**
+     * Takes and resets the hits so far.
+     */
+    public synchronized Feedback drain() {
+        int[] ids = this.methods.keys();
+        int[] hits = this.methods.takeCounts(ids);
+        int[] edgeSlots = this.edges.keys();
+        int[] edgeHits = this.edges.takeCounts(edgeSlots);
+        for (int i = 0; i < edgeHits.length; i++) {
+            edgeHits[i] = Math.min(edgeHits[i], MAX_EDGE_HITS);
+        }
+        return new Feedback(ids, hits, edgeSlots, edgeHits);
+    }
+
+    /**
+     * Hits per non-negative key in order of first hit.
+     */
+    private static class Counts {
+        private static final int INITIAL_CAPACITY = 16;
+
+        // open addressing, key + 1, 0 is an empty slot
+        private int[] keys = new int[INITIAL_CAPACITY];
+        private int[] counts = new int[INITIAL_CAPACITY];
+        private int[] order = new int[INITIAL_CAPACITY / 2];
+        private int size = 0;
+
+        private void add(int key) {
+            int slot = find(this.keys, key);
+            if (this.keys[slot] == 0) {
+                this.keys[slot] = key + 1;
+                this.order[this.size++] = key;
+                // at most half full
+                if (this.size * 2 == this.keys.length) {
+                    grow();
+                }
+                slot = find(this.keys, key);
+            }
+            this.counts[slot]++;
+        }
+
+        private int[] keys() {
+            return Arrays.copyOf(this.order, this.size);
+        }
+
+        /**
+         * Also resets the map.
+         */
+        private int[] takeCounts(int[] keys) {
+            int[] result = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                result[i] = this.counts[find(this.keys, keys[i])];
+            }
+
+            Arrays.fill(this.keys, 0);
+            Arrays.fill(this.counts, 0);
+            this.size = 0;
+            return result;
+        }
+
+        private void grow() {
+            int[] oldKeys = this.keys;
+            int[] oldCounts = this.counts;
+            this.keys = new int[oldKeys.length * 2];
+            this.counts = new int[oldKeys.length * 2];
+            this.order = Arrays.copyOf(this.order, oldKeys.length);
+
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != 0) {
+                    int newSlot = find(this.keys, oldKeys[slot] - 1);
+                    this.keys[newSlot] = oldKeys[slot];
+                    this.counts[newSlot] = oldCounts[slot];
+                }
+            }
+        }
+
+        /**
+         * @return the slot of the key, or the empty slot where it belongs
+         */
+        private static int find(int[] keys, int key) {
+            int mask = keys.length - 1;
+            int hash = key * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (keys[slot] != 0 && keys[slot] != key + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.axelkoolhaas.rusa.dyn;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Attributes hits to the fuzzer request that caused them.
+ * The fuzzer sends the request id in the {@value #HEADER} header, the instrumented servlet entry points
+ * ({@link com.axelkoolhaas.rusa.dyn.advice.ServletAdvice}) make the request current on its thread for the duration
+ * of the request. Only ids the client announced to the {@link ZmqServer} are tagged, hits outside a tagged request
+ * (other traffic, work handed to other threads, container code before the filter chain) stay untagged.
+ */
+public class RequestScope {
+    // Constants
+    public static final String HEADER = "X-Rusa-Request-Id";
+
+    // Fields
+    private static final Logger logger = LogManager.getLogger(RequestScope.class);
+    private static final ThreadLocal<RequestFeedback> current = new ThreadLocal<>();
+    // HttpServletRequest#getHeader per request class, javax and jakarta have no common type we can link against
+    private static final ClassValue<Method> getHeader = new ClassValue<>() {
+        @Override
+        protected Method computeValue(Class<?> type) {
+            return findGetHeader(type);
+        }
+    };
+
+    // Constructor
+    private RequestScope() {
+    }
+
+    // Methods
+    /**
+     * @return the feedback of the request running on this thread, null if untagged
+     */
+    public static RequestFeedback current() {
+        return current.get();
+    }
+
+    /**
+     * Called when the filter chain or a servlet starts handling a request.
+     * @param request javax or jakarta ServletRequest, only HTTP requests carry the header
+     * @return whether this call made the request current, pass it to {@link #exit(boolean)}
+     */
+    public static boolean enter(Object request) {
+        // forwards and includes run inside the outer request
+        if (current.get() != null) {
+            return false;
+        }
+
+        String header = readHeader(request);
+        if (header == null) {
+            return false;
+        }
+
+        RequestFeedback feedback;
+        try {
+            feedback = ZmqServer.getInstance().getRequestFeedback(Long.parseLong(header.trim()));
+        } catch (NumberFormatException e) {
+            logger.warn("Request # {} in {} couldn't be parsed.", header, HEADER);
+            return false;
+        }
+        if (feedback == null) {
+            return false;
+        }
+
+        feedback.tag();
+        current.set(feedback);
+        // the previous request on this thread is not the caller
+        EdgeCoverage.reset();
+        return true;
+    }
+
+    public static void exit(boolean entered) {
+        if (entered) {
+            current.remove();
+            EdgeCoverage.reset();
+        }
+    }
+
+    private static String readHeader(Object request) {
+        Method method = getHeader.get(request.getClass());
+        if (method == null) {
+            return null;
+        }
+        try {
+            return (String) method.invoke(request, HEADER);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Could not read {}: {}", HEADER, e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * The request class itself is often not public, so take the method of a public interface.
+     */
+    private static Method findGetHeader(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                Method method = findGetHeader(i);
+                if (method != null) {
+                    return method;
+                }
+            }
+            if (Modifier.isPublic(c.getModifiers())) {
+                try {
+                    return c.getMethod("getHeader", String.class);
+                } catch (NoSuchMethodException e) {
+                    // not declared here
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,226 @@
+package com.axelkoolhaas.rusa.dyn;
+
+import com.axelkoolhaas.rusa.model.json.JsonDTO;
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends a JSON line per hit to the results file without doing I/O on the instrumented threads.
+ * Hits are method ids in a bounded lock-free ring (many producers, one consumer), a background thread formats and
+ * writes them through a buffered channel. The buffer is flushed every flush interval, on rotation and on shutdown.
+ * With a maximum size the file is rotated to {@code <path>.1} once it grows beyond it.
+ * Instrumented threads never wait: if the writer falls a whole ring behind, or has stopped, hits are dropped and
+ * counted.
+ */
+public class ResultsWriter implements Runnable {
+    // Constants
+    private static final int CAPACITY = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    // Fields
+    private static final Logger logger = LogManager.getLogger(ResultsWriter.class);
+    private static final Gson gson = new Gson();
+    private final Path path;
+    private final DistanceTable targets;
+    private final long flushIntervalNanos;
+    private final long maxSize;
+    // method id + 1 per slot, 0 until the producer published it
+    private final AtomicIntegerArray ring = new AtomicIntegerArray(CAPACITY);
+    // next slot to claim by producers
+    private final AtomicLong tail = new AtomicLong();
+    // next slot to take by the consumer
+    private final AtomicLong head = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private final AtomicLong dropped = new AtomicLong();
+    // Consumer only, guarded by this
+    private boolean closed = false;
+    private long reportedDropped = 0;
+    private final String[] lines;
+    private Writer out;
+    private long size;
+
+    // Constructor
+    /**
+     * @param flushInterval milliseconds between flushes
+     * @param maxSize rotate the file beyond this many bytes, 0 to never rotate
+     */
+    public ResultsWriter(String path, DistanceTable targets, long flushInterval, long maxSize) throws IOException {
+        this.path = Paths.get(path);
+        this.targets = targets;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        this.maxSize = maxSize;
+        this.lines = new String[targets.size()];
+        open();
+
+        this.thread = new Thread(this, "rusa-results");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    // Methods
+    /**
+     * Called by the instrumented threads, never waits.
+     * @param id method id in the distance table
+     */
+    public void add(int id) {
+        long slot;
+        do {
+            slot = this.tail.get();
+            if (!this.running || slot - this.head.get() >= CAPACITY) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+        } while (!this.tail.compareAndSet(slot, slot + 1));
+        this.ring.set((int) (slot & (CAPACITY - 1)), id + 1);
+    }
+
+    /**
+     * @return hits that were not written because the ring was full or the writer stopped
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    @Override
+    public void run() {
+        long lastFlush = System.nanoTime();
+        while (this.running) {
+            try {
+                boolean written = drain();
+                if (System.nanoTime() - lastFlush >= this.flushIntervalNanos) {
+                    flush();
+                    lastFlush = System.nanoTime();
+                }
+                if (!written) {
+                    LockSupport.parkNanos(Math.min(this.flushIntervalNanos, TimeUnit.MILLISECONDS.toNanos(10)));
+                }
+            } catch (IOException e) {
+                logger.error("Could not write to {}: {}", this.path, e.getMessage(), e);
+                System.exit(1);
+            } catch (Throwable e) {
+                // producers drop their hits from now on instead of filling the ring
+                logger.error("Results writer stopped: {}", e.getMessage(), e);
+                this.running = false;
+            }
+        }
+    }
+
+    /**
+     * Writes what is left and closes the file.
+     */
+    public void close() {
+        this.running = false;
+        try {
+            this.thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // the writer thread might still be busy, the lock keeps us apart
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            try {
+                drain();
+                this.closed = true;
+                this.out.close();
+            } catch (IOException e) {
+                logger.error("Could not close {}: {}", this.path, e.getMessage());
+            }
+        }
+        if (this.dropped.get() > 0) {
+            logger.warn("Dropped {} results.", this.dropped.get());
+        }
+    }
+
+    private synchronized void flush() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.out.flush();
+
+        long dropped = this.dropped.get();
+        if (dropped != this.reportedDropped) {
+            logger.warn("Dropped {} results, the results file can't keep up.", dropped - this.reportedDropped);
+            this.reportedDropped = dropped;
+        }
+    }
+
+    /**
+     * @return whether anything was written
+     */
+    private synchronized boolean drain() throws IOException {
+        if (this.closed) {
+            return false;
+        }
+        long start = this.head.get();
+        long position = start;
+        while (true) {
+            int index = (int) (position & (CAPACITY - 1));
+            int entry = this.ring.get(index);
+            // not published yet
+            if (entry == 0) {
+                break;
+            }
+            this.ring.set(index, 0);
+            position++;
+            // free the slot for producers
+            this.head.lazySet(position);
+
+            write(entry - 1);
+        }
+        return position != start;
+    }
+
+    private void write(int id) throws IOException {
+        String line = this.lines[id];
+        if (line == null) {
+            // the line of a method never changes
+            line = gson.toJson(new JsonDTO(this.targets.getClassName(id), this.targets.getMethodName(id),
+                    this.targets.getDistance(id), null)) + LINE_SEPARATOR;
+            this.lines[id] = line;
+        }
+
+        if (this.maxSize > 0 && this.size + line.length() > this.maxSize && this.size > 0) {
+            rotate();
+        }
+        this.out.write(line);
+        // JSON of the agent is ASCII apart from rare names, close enough for rotation
+        this.size += line.length();
+    }
+
+    private void rotate() throws IOException {
+        this.out.close();
+        Files.move(this.path, Paths.get(this.path + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    private void open() throws IOException {
+        FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.size = channel.size();
+        this.out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+}
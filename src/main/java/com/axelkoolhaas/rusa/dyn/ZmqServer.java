@@ -1,6 +1,5 @@
 package com.axelkoolhaas.rusa.dyn;
 
-import com.axelkoolhaas.rusa.model.json.JsonDTO;
 import com.google.gson.Gson;
 import lombok.Getter;
 import org.apache.logging.log4j.LogManager;
@@ -9,42 +8,131 @@ import org.zeromq.SocketType;
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Feedback server for the Rusa frontend, speaks one of two protocols.
+ * <pre>
+ * sync   REP socket, per request: id -> {} and after fuzzing the same id (SYNC) -> feedback
+ * async  ROUTER socket, every frame carries the request id: [START, id] gets no reply,
+ *        [END, id] -> [id, feedback], so many requests can be in flight; a START without a valid id is dropped,
+ *        an END without one gets [ERROR, id]
+ * </pre>
+ * Both start with the RUSA (JSON feedback) or RUSA2 (binary feedback, see {@link FeedbackCodec}) handshake and end
+ * with HALT.
+ * A request that carries its id in the {@value RequestScope#HEADER} header gets only its own hits, otherwise it gets
+ * all untagged hits since the previous untagged request.
+ */
 public class ZmqServer implements Runnable {
     // Constants
     private static final String START_TAG = "RUSA";
+    private static final String BINARY_START_TAG = "RUSA2";
     private static final String STOP_TAG = "HALT";
     private static final String EMPTY_OBJ = "{}";
+    private static final String REQUEST_START_TAG = "START";
+    private static final String REQUEST_END_TAG = "END";
+    private static final String ERROR_TAG = "ERROR";
 
     // Fields
     private static final Logger logger = LogManager.getLogger(ZmqServer.class);
     private static ZmqServer instance;
     private final ZContext context = new ZContext();
     @Getter
-    private boolean ready = false;
-    private final List<JsonDTO> feedback = new ArrayList<>();
+    private volatile boolean ready = false;
+    // Hits aggregated per method, created on first use since it needs the distance table
+    private volatile FeedbackAggregator feedback;
+    // Requests announced by the client that haven't been synced yet
+    private final Map<Long, RequestFeedback> requests = new ConcurrentHashMap<>();
+    // Protocol of the connected client, binary frames after a RUSA2 handshake
+    private boolean binary = false;
+    private byte[] dictionary;
+    private final Gson gson = new Gson();
+
+    public enum Protocol {
+        SYNC, ASYNC;
+
+        public static Protocol fromSetting(String protocol) {
+            return Arrays.stream(values())
+                    .filter(p -> p.name().equalsIgnoreCase(protocol))
+                    .findFirst()
+                    .orElseGet(() -> {
+                        logger.error("Unrecognized protocol: {}", protocol);
+                        System.exit(1);
+                        return null;
+                    });
+        }
+    }
 
     // Getters and setters
-    public synchronized List<JsonDTO> getFeedback() {
-        return Collections.unmodifiableList(this.feedback);
+    private FeedbackAggregator getFeedback() {
+        FeedbackAggregator aggregator = this.feedback;
+        if (aggregator == null) {
+            synchronized (this) {
+                if (this.feedback == null) {
+                    this.feedback = new FeedbackAggregator(CallRecorder.getInstance().getTargets());
+                }
+                aggregator = this.feedback;
+            }
+        }
+        return aggregator;
+    }
+
+    /**
+     * Takes the feedback collected since the last call, producers are not blocked meanwhile.
+     */
+    public Feedback drainFeedback() {
+        return getFeedback().drain();
+    }
+
+    /**
+     * Takes the feedback of a request, an untagged request takes the untagged feedback.
+     */
+    public Feedback drainFeedback(long requestId) {
+        RequestFeedback request = this.requests.remove(requestId);
+        if (request != null && request.isTagged()) {
+            return request.drain();
+        }
+        return drainFeedback();
+    }
+
+    /**
+     * Announces a request, from now on the servlet can tag its hits.
+     */
+    public void startRequest(long requestId) {
+        this.requests.put(requestId, new RequestFeedback(requestId));
+    }
+
+    /**
+     * @return the feedback of an announced request, null if it isn't announced or already synced
+     */
+    public RequestFeedback getRequestFeedback(long requestId) {
+        return this.requests.get(requestId);
     }
 
     /**
      * Only store feedback if there is an active connection.
-     * @param jsonDTO
+     * @param id method id in the distance table
+     * @param edge slot in the edge bitmap, see {@link EdgeCoverage}
      */
-    public synchronized void addFeedback(JsonDTO jsonDTO) {
-        if (this.ready) {
-            this.feedback.add(jsonDTO);
+    public void addFeedback(int id, int edge) {
+        if (!this.ready) {
+            return;
+        }
+
+        RequestFeedback request = RequestScope.current();
+        if (request != null) {
+            request.add(id, edge);
+        } else {
+            getFeedback().add(id, edge);
         }
     }
 
-    public synchronized void clearFeedback() {
-        this.feedback.clear();
+    public void clearFeedback() {
+        getFeedback().drain();
     }
 
     // Singleton
@@ -65,19 +153,27 @@ public class ZmqServer implements Runnable {
         Runtime.getRuntime().addShutdownHook(new Thread(() ->
                 ZmqServer.getInstance().stop()));
 
+        Protocol protocol = Protocol.fromSetting(
+                CallRecorder.getInstance().getSettingsMap().get(PreEntry.PROTOCOL));
+
         // Main communication loop
 //        ZMQ.Socket monitorSocket = this.context.createSocket(SocketType.PAIR);
         ZMQ.Socket socket = null;
         while (!Thread.currentThread().isInterrupted()) {
 
             try {
-                socket = createAndBindSocket();
+                if (protocol == Protocol.ASYNC) {
+                    socket = createAndBindSocket(SocketType.ROUTER);
+                    asyncCommunicationLoop(socket);
+                } else {
+                    socket = createAndBindSocket(SocketType.REP);
 
-                if (!handshake(socket)) {
-                    continue;
-                }
+                    if (!handshake(socket)) {
+                        continue;
+                    }
 
-                fuzzCommunicationLoop(socket);
+                    fuzzCommunicationLoop(socket);
+                }
 
             } catch (NumberFormatException e) {
                 // handle the exception here
@@ -111,11 +207,11 @@ public class ZmqServer implements Runnable {
      * I know this busy wait loop is ugly as hell, but it's the only way I could get it to work.
      * ZMQ.Socket.close() is ASYNC :')
      */
-    private ZMQ.Socket createAndBindSocket() {
+    private ZMQ.Socket createAndBindSocket(SocketType type) {
         ZMQ.Socket socket;
         while (true) {
             try {
-                socket = this.context.createSocket(SocketType.REP);
+                socket = this.context.createSocket(type);
                 System.out.println("Starting ZMQ server.");
                 if (!socket.bind("tcp://*:1337")) {
                     logger.error("Failed binding to port.");
@@ -137,19 +233,51 @@ public class ZmqServer implements Runnable {
         String msg;
         logger.info("Waiting for Rusa client...");
         msg = new String(socket.recv(0), ZMQ.CHARSET);
-        if (msg.equals(START_TAG)) {
-            logger.info("Client connected.");
-            this.ready = true;
-            socket.send(START_TAG.getBytes(ZMQ.CHARSET), 0);
-        } else {
+        ZMsg reply = connect(msg);
+        if (reply == null) {
             logger.error("Unexpected tag received.");
             return false;
         }
+        reply.send(socket);
         return true;
     }
 
+    /**
+     * @return the handshake reply, null if the tag doesn't start a connection
+     */
+    private ZMsg connect(String tag) {
+        ZMsg reply = new ZMsg();
+        if (tag.equals(START_TAG)) {
+            logger.info("Client connected.");
+            this.binary = false;
+            reply.add(START_TAG);
+        } else if (tag.equals(BINARY_START_TAG)) {
+            // the method dictionary is part of the handshake, later frames only carry ids
+            logger.info("Client connected (binary).");
+            if (this.dictionary == null) {
+                this.dictionary = FeedbackCodec.encodeDictionary(CallRecorder.getInstance().getTargets());
+            }
+            this.binary = true;
+            reply.add(BINARY_START_TAG);
+            reply.add(this.dictionary);
+        } else {
+            return null;
+        }
+        // requests of a previous client are never synced
+        this.requests.clear();
+        this.ready = true;
+        return reply;
+    }
+
+    private byte[] encodeFeedback(Feedback feedback) {
+        if (this.binary) {
+            return FeedbackCodec.encode(feedback);
+        }
+        return this.gson.toJson(feedback.toJsonSummary(CallRecorder.getInstance().getTargets()))
+                .getBytes(ZMQ.CHARSET);
+    }
+
     private void fuzzCommunicationLoop(ZMQ.Socket socket) throws NumberFormatException, ZMQException {
-        Gson gson = new Gson();
         String msg;
         long requestIdentifier;
 
@@ -164,7 +292,8 @@ public class ZmqServer implements Runnable {
 
             // Handle request identifier
             requestIdentifier = Long.parseLong(msg);
-            socket.send(EMPTY_OBJ.getBytes(ZMQ.CHARSET), 0);
+            startRequest(requestIdentifier);
+            socket.send(this.binary ? new byte[0] : EMPTY_OBJ.getBytes(ZMQ.CHARSET), 0);
 
             // fuzzing occurs, wait for SYNC
             msg = new String(socket.recv(0), ZMQ.CHARSET);
@@ -183,9 +312,82 @@ public class ZmqServer implements Runnable {
 //                    requestIdentifier = null;
 
             // Send response
-//            getFeedback().forEach(System.out::println);
-            socket.send(gson.toJson(getFeedback()).getBytes(ZMQ.CHARSET), 0);
-            clearFeedback();
+            socket.send(encodeFeedback(drainFeedback(requestIdentifier)), 0);
+        }
+    }
+
+    /*
+     * Frames from a DEALER client are [identity, tag, request id], a REQ client adds an empty delimiter after the
+     * identity. Replies are routed back with the same envelope, only END and the handshake are answered.
+     */
+    private void asyncCommunicationLoop(ZMQ.Socket socket) throws ZMQException {
+        logger.info("Waiting for Rusa client...");
+        while (!Thread.currentThread().isInterrupted()) {
+            ZMsg msg = ZMsg.recvMsg(socket);
+            if (msg == null) {
+                return;
+            }
+
+            ZMsg reply = new ZMsg();
+            reply.add(msg.pop());
+            if (msg.peekFirst() != null && msg.peekFirst().size() == 0) {
+                reply.add(msg.pop());
+            }
+            String tag = msg.popString();
+
+            if (tag == null) {
+                logger.error("Unexpected tag received.");
+            } else if (tag.equals(STOP_TAG)) {
+                logger.info("Client disconnected.");
+                this.ready = false;
+                return;
+            } else if (tag.equals(REQUEST_START_TAG)) {
+                String requestIdentifier = msg.popString();
+                Long requestId = parseRequestId(requestIdentifier);
+                if (requestId != null) {
+                    startRequest(requestId);
+                }
+            } else if (tag.equals(REQUEST_END_TAG)) {
+                String requestIdentifier = msg.popString();
+                Long requestId = parseRequestId(requestIdentifier);
+                if (requestId == null) {
+                    // the client waits for a reply to every END
+                    reply.add(ERROR_TAG);
+                    reply.add(requestIdentifier == null ? "" : requestIdentifier);
+                    reply.send(socket);
+                    continue;
+                }
+                if (getRequestFeedback(requestId) == null) {
+                    logger.warn("Request # {} ended without being started.", requestIdentifier);
+                }
+                reply.add(requestIdentifier);
+                reply.add(encodeFeedback(drainFeedback(requestId)));
+                reply.send(socket);
+            } else {
+                ZMsg handshake = connect(tag);
+                if (handshake == null) {
+                    logger.error("Unexpected tag received.");
+                    continue;
+                }
+                reply.append(handshake);
+                reply.send(socket);
+            }
+        }
+    }
+
+    /*
+     * A bad frame only affects its own request, the other requests in flight go on.
+     */
+    private static Long parseRequestId(String requestIdentifier) {
+        if (requestIdentifier == null) {
+            logger.warn("Request # missing.");
+            return null;
+        }
+        try {
+            return Long.parseLong(requestIdentifier);
+        } catch (NumberFormatException e) {
+            logger.warn("Request # {} couldn't be parsed.", requestIdentifier);
+            return null;
         }
     }
 
@@ -0,0 +1,14 @@
+package com.axelkoolhaas.rusa.dyn.advice;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the distance table id of the instrumented method to an int advice parameter, see {@link MethodIdMapping}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface MethodId {
+}
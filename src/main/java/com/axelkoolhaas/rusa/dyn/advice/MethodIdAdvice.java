@@ -0,0 +1,17 @@
+package com.axelkoolhaas.rusa.dyn.advice;
+
+import com.axelkoolhaas.rusa.dyn.CallRecorder;
+import net.bytebuddy.asm.Advice;
+
+/**
+ * Production advice, inlined into the instrumented method.
+ * The method id is a constant resolved at transformation time (see {@link MethodIdMapping}), so a call only
+ * pushes an int and records it; no strings, arguments or lookups. Use {@link MethodTracerAdvice} to debug.
+ */
+public class MethodIdAdvice {
+
+    @Advice.OnMethodEnter
+    public static void enter(@MethodId int id) {
+        CallRecorder.beforeMethod(id);
+    }
+}
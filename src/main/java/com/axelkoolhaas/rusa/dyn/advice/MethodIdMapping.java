@@ -0,0 +1,29 @@
+package com.axelkoolhaas.rusa.dyn.advice;
+
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+
+/**
+ * Resolves {@link MethodId} when a method is transformed, the id ends up as a constant in the instrumented code.
+ */
+public class MethodIdMapping implements Advice.OffsetMapping {
+    // Fields
+    private final DistanceTable targets;
+
+    // Constructor
+    public MethodIdMapping(DistanceTable targets) {
+        this.targets = targets;
+    }
+
+    // Methods
+    @Override
+    public Target resolve(TypeDescription instrumentedType, MethodDescription instrumentedMethod,
+                          Assigner assigner, Advice.ArgumentHandler argumentHandler, Sort sort) {
+        int id = this.targets.lookup(instrumentedType.getName(), instrumentedMethod.getInternalName());
+        return new Target.ForStackManipulation(IntegerConstant.forValue(id));
+    }
+}
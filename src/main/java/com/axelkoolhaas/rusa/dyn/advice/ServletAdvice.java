@@ -0,0 +1,25 @@
+package com.axelkoolhaas.rusa.dyn.advice;
+
+import com.axelkoolhaas.rusa.dyn.RequestScope;
+import net.bytebuddy.asm.Advice;
+
+/**
+ * Inlined into the public entry points HttpServlet#service(ServletRequest, ServletResponse) and
+ * FilterChain#doFilter(ServletRequest, ServletResponse) of javax and jakarta, so filters such as Spring Security and
+ * servlets that override the protected service method are covered. The outermost call makes a tagged fuzzer request
+ * current on the handling thread, see {@link RequestScope}.
+ * Code the container runs before the filter chain (Tomcat valves, Jetty handlers) and non-servlet stacks such as
+ * WebFlux on Netty stay untagged.
+ */
+public class ServletAdvice {
+
+    @Advice.OnMethodEnter
+    public static boolean enter(@Advice.Argument(0) Object request) {
+        return RequestScope.enter(request);
+    }
+
+    @Advice.OnMethodExit(onThrowable = Throwable.class)
+    public static void exit(@Advice.Enter boolean entered) {
+        RequestScope.exit(entered);
+    }
+}
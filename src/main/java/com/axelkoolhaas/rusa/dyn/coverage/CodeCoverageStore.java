@@ -2,9 +2,22 @@ package com.axelkoolhaas.rusa.dyn.coverage;
 
 import java.util.Map;
 
+/**
+ * Hit counters of the methods with distance, by method id in the distance table, and the edge bitmap
+ * ({@link com.axelkoolhaas.rusa.dyn.EdgeCoverage}).
+ */
 public interface CodeCoverageStore {
 
-    abstract void increment(String type, String methodName);
-    abstract Map<String, Integer> getCoverage();
-    abstract void reset();
-}
\ No newline at end of file
+    /**
+     * @param id method id in the distance table
+     * @param edge slot in the edge bitmap
+     */
+    void increment(int id, int edge);
+
+    /**
+     * @return hits per class:method since the last reset, methods that weren't hit are left out
+     */
+    Map<String, Integer> getCoverage();
+
+    void reset();
+}
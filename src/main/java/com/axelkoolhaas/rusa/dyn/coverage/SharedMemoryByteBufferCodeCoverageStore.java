@@ -1,127 +1,185 @@
 package com.axelkoolhaas.rusa.dyn.coverage;
 
-import lombok.Getter;
+import com.axelkoolhaas.rusa.dyn.EdgeCoverage;
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
 
-/* TODO this functionality is not finished */
+/**
+ * Hit counters per method id in a memory-mapped file, so a fuzzer on the same machine can read the feedback
+ * without a socket round trip, see {@link SharedMemoryCodeCoverageReader}.
+ * The ids are fixed at premain: they are the method ids of the distance table, which the reader opens as well.
+ * <pre>
+ * header   magic, version, counter count, region size, edges offset, edge map size, epoch, writers per region;
+ *          little-endian ints
+ * regions  twice int[counter count] and byte[edge map size] at the edges offset, hits go to region epoch &amp; 1
+ * </pre>
+ * The reader increments the epoch, waits for the writers that still saw the old epoch and takes the counters of the
+ * old region (double-buffering). Writers never wait, all counter updates are atomic. The edge counters saturate
+ * at 255 and, like in AFL, concurrent increments of one edge may get lost.
+ */
 public class SharedMemoryByteBufferCodeCoverageStore implements CodeCoverageStore {
-
-    // Path of the shared memory
-    private static final String SHM_PATH = System.getProperty("java.io.tmpdir") + File.separator + "rusa-shm";
-
-    // Size of the coverage array in bytes
-    private static final int ARRAY_SIZE = 1 << 20; // 1 MB = 262,144 integers
-
-    // Offset of the coverage array in the shared memory segment
-    private static final int ARRAY_OFFSET = 0;
-
-    // Offset of the method ID map in the shared memory segment
-    // TODO why is the MAP_OFFSET at the end of the array?
-    private static final int MAP_OFFSET = ARRAY_OFFSET + ARRAY_SIZE;
+    private static final Logger logger = LogManager.getLogger(SharedMemoryByteBufferCodeCoverageStore.class);
+
+    // Path of the shared memory, in memory if the system has /dev/shm
+    static final String SHM_PATH = (Files.isDirectory(Paths.get("/dev/shm"))
+            ? "/dev/shm" : System.getProperty("java.io.tmpdir")) + File.separator + "rusa-shm";
+
+    // Layout, fields that change are on their own cache line
+    static final int MAGIC = 0x52534843; // RSHC
+    static final int VERSION = 2;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int CACHE_LINE = 64;
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int COUNTER_COUNT_OFFSET = 8;
+    static final int REGION_SIZE_OFFSET = 12;
+    static final int EDGES_OFFSET_OFFSET = 16;
+    static final int EDGE_MAP_SIZE_OFFSET = 20;
+    static final int EPOCH_OFFSET = CACHE_LINE;
+    static final int WRITERS_OFFSET = 2 * CACHE_LINE;
+    static final int HEADER_SIZE = 4 * CACHE_LINE;
+
+    // Atomic int access to the mapped buffer by byte offset
+    static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, BYTE_ORDER);
 
     // Shared memory segment
     private final ByteBuffer sharedMemory;
 
-    // Map from method names to index IDs
-    @Getter
-    private final Map<String, Integer> methodIdMap;
+    // Methods the counters belong to
+    private final DistanceTable targets;
 
-    // TODO experiment with removing this
-    // Coverage array
-    private final int[] coverage;
+    // Byte offsets of the two counter regions
+    private final int[] regions;
+    private final int edgesOffset;
 
     // Singleton instance
     private static SharedMemoryByteBufferCodeCoverageStore instance;
 
-    private SharedMemoryByteBufferCodeCoverageStore(ByteBuffer sharedMemory) {
+    private SharedMemoryByteBufferCodeCoverageStore(ByteBuffer sharedMemory, DistanceTable targets) {
         this.sharedMemory = sharedMemory;
-        this.methodIdMap = new HashMap<>();
-        this.coverage = new int[ARRAY_SIZE / 4];
+        this.targets = targets;
+
+        int regionSize = regionSize(targets.size());
+        this.regions = new int[] {HEADER_SIZE, HEADER_SIZE + regionSize};
+        this.edgesOffset = edgesOffset(targets.size());
+
+        // a reader only trusts the layout once the magic is there
+        INT.setVolatile(sharedMemory, MAGIC_OFFSET, 0);
+        INT.set(sharedMemory, VERSION_OFFSET, VERSION);
+        INT.set(sharedMemory, COUNTER_COUNT_OFFSET, targets.size());
+        INT.set(sharedMemory, REGION_SIZE_OFFSET, regionSize);
+        INT.set(sharedMemory, EDGES_OFFSET_OFFSET, this.edgesOffset);
+        INT.set(sharedMemory, EDGE_MAP_SIZE_OFFSET, EdgeCoverage.MAP_SIZE);
+        INT.set(sharedMemory, EPOCH_OFFSET, 0);
+        for (int region = 0; region < 2; region++) {
+            INT.set(sharedMemory, writersOffset(region), 0);
+            for (int offset = this.regions[region]; offset < this.regions[region] + regionSize; offset++) {
+                sharedMemory.put(offset, (byte) 0);
+            }
+        }
+        INT.setVolatile(sharedMemory, MAGIC_OFFSET, MAGIC);
     }
 
     public static SharedMemoryByteBufferCodeCoverageStore getInstance() {
         if (instance == null) {
-            instance = new SharedMemoryByteBufferCodeCoverageStore(openSharedMemory(true));
+            logger.error("Initialize SharedMemoryByteBufferCodeCoverageStore before usage.");
+            System.exit(1);
         }
         return instance;
     }
 
-    public static void initialize(Map<String, List<String>> targets) {
-        // using the list of targets, already map the methodIdMap
-        for (Map.Entry<String, List<String>> classTypeEntry : targets.entrySet()) {
-            for (String methodName : classTypeEntry.getValue()) {
-                int nextId = instance.getMethodIdMap().size();
-                instance.getMethodIdMap().put(classTypeEntry.getKey() + ':' + methodName, nextId);
-            }
+    /**
+     * Creates the shared memory for the methods with distance.
+     */
+    public static void initialize(DistanceTable targets) {
+        if (instance != null) {
+            logger.error("SharedMemoryByteBufferCodeCoverageStore already initialized.");
+            System.exit(1);
         }
+        long size = HEADER_SIZE + 2L * regionSize(targets.size());
+        instance = new SharedMemoryByteBufferCodeCoverageStore(openSharedMemory(true, size), targets);
+        logger.info("Coverage of {} methods in {}.", targets.size(), SHM_PATH);
     }
 
     @Override
-    public void increment(String type, String methodName) {
-        String identifier = type + methodName;
-
-        // Check if we have already seen this method
-        if (!methodIdMap.containsKey(identifier)) {
-            // If not, assign it a new ID and add it to the map
-            int nextId = methodIdMap.size();
-            methodIdMap.put(identifier, nextId);
-
-            // Update the method ID map in the shared memory segment
-//            sharedMemory.position();
-//            sharedMemory.asCharBuffer().put(methodName);
-//            sharedMemory.putInt(nextId);
+    public void increment(int id, int edge) {
+        while (true) {
+            int epoch = (int) INT.getVolatile(this.sharedMemory, EPOCH_OFFSET);
+            int writers = writersOffset(epoch & 1);
+            INT.getAndAdd(this.sharedMemory, writers, 1);
+            try {
+                // the reader flipped in between, it might not wait for us
+                if ((int) INT.getVolatile(this.sharedMemory, EPOCH_OFFSET) != epoch) {
+                    continue;
+                }
+                int region = this.regions[epoch & 1];
+                INT.getAndAdd(this.sharedMemory, region + Integer.BYTES * id, 1);
+
+                int edgeOffset = region + this.edgesOffset + edge;
+                byte edgeHits = this.sharedMemory.get(edgeOffset);
+                if (edgeHits != -1) {
+                    this.sharedMemory.put(edgeOffset, (byte) (edgeHits + 1));
+                }
+                return;
+            } finally {
+                INT.getAndAdd(this.sharedMemory, writers, -1);
+            }
         }
-
-        // Look up the ID for this method
-        int methodId = methodIdMap.get(identifier);
-
-        // Increment the count for this method
-        coverage[methodId]++;
-//        int counter = sharedMemory.getInt(ARRAY_OFFSET + 4 * methodId);
-        sharedMemory.putInt(ARRAY_OFFSET + 4 * methodId, coverage[methodId]);
-
     }
 
     @Override
     public Map<String, Integer> getCoverage() {
-        // Copy the method ID map and coverage array from the shared memory segment
-        Map<String, Integer> coverageData = new HashMap<>();
-        sharedMemory.position(MAP_OFFSET);
-        while (sharedMemory.hasRemaining()) {
-            String methodName = sharedMemory.asCharBuffer().toString();
-            int methodId = sharedMemory.getInt();
-            int count = sharedMemory.getInt(ARRAY_OFFSET + 4 * methodId);
-            coverageData.put(methodName, count);
+        // counters of the current epoch, still being written
+        int region = this.regions[(int) INT.getVolatile(this.sharedMemory, EPOCH_OFFSET) & 1];
+        int[] counts = new int[this.targets.size()];
+        for (int id = 0; id < counts.length; id++) {
+            counts[id] = (int) INT.getVolatile(this.sharedMemory, region + Integer.BYTES * id);
         }
-        return coverageData;
+        return SharedMemoryCodeCoverageReader.toCoverage(counts, this.targets);
     }
 
     @Override
     public void reset() {
-        // Clear the method ID map and coverage array in the shared memory segment
-        sharedMemory.position(MAP_OFFSET);
-        sharedMemory.asCharBuffer().put("");
-        sharedMemory.position(ARRAY_OFFSET);
-        sharedMemory.asIntBuffer().put(coverage, 0, coverage.length);
+        new SharedMemoryCodeCoverageReader(this.sharedMemory).drain();
     }
 
+    /**
+     * @param create creates the file if needed, otherwise the file must exist; either way it is mapped read-write
+     */
     public static ByteBuffer openSharedMemory(boolean create) {
+        return openSharedMemory(create, 0);
+    }
+
+    /**
+     * @param size of a created file, an existing file is mapped as a whole
+     */
+    static ByteBuffer openSharedMemory(boolean create, long size) {
         Set<StandardOpenOption> openOptions = create
                 ? new HashSet<>(List.of(StandardOpenOption.READ, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
-                : new HashSet<>(List.of(StandardOpenOption.READ));
-
-        FileChannel.MapMode mapMode = create ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+                : new HashSet<>(List.of(StandardOpenOption.READ, StandardOpenOption.WRITE));
 
         try (FileChannel channel = FileChannel.open(Paths.get(SHM_PATH), openOptions)) {
+            if (create) {
+                // a previous run might have had more methods
+                channel.truncate(size);
+            }
+
             // Map the file into memory as a direct byte buffer
-            return channel.map(mapMode, 0, ARRAY_SIZE); // mode, position, size
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, create ? size : channel.size())
+                    .order(BYTE_ORDER); // mode, position, size
 
             /* "A mapping is not dependent upon the file channel that was used to create it.
                 Closing the channel has no effect upon the validity of the mapping." */
@@ -129,4 +187,17 @@ public class SharedMemoryByteBufferCodeCoverageStore implements CodeCoverageStor
             throw new RuntimeException(e);
         }
     }
+
+    static int writersOffset(int region) {
+        return WRITERS_OFFSET + region * CACHE_LINE;
+    }
+
+    private static int edgesOffset(int counterCount) {
+        // regions and their edges start on a cache line
+        return (Integer.BYTES * counterCount + CACHE_LINE - 1) / CACHE_LINE * CACHE_LINE;
+    }
+
+    private static int regionSize(int counterCount) {
+        return edgesOffset(counterCount) + EdgeCoverage.MAP_SIZE;
+    }
 }
@@ -0,0 +1,137 @@
+package com.axelkoolhaas.rusa.dyn.coverage;
+
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.axelkoolhaas.rusa.dyn.coverage.SharedMemoryByteBufferCodeCoverageStore.*;
+
+/**
+ * Reads the coverage the agent writes to shared memory ({@link SharedMemoryByteBufferCodeCoverageStore}), meant
+ * for a fuzzer on the same machine. Only one reader may drain at a time.
+ * <pre>
+ * SharedMemoryCodeCoverageReader reader = new SharedMemoryCodeCoverageReader();
+ * reader.drain();                           // discard the hits so far
+ * // send a request
+ * int[] hits = reader.drain(edges);         // hits per method id of the distance table, edges is a byte[] of
+ *                                           // reader.getEdgeMapSize() that receives the edge bitmap
+ * </pre>
+ */
+public class SharedMemoryCodeCoverageReader {
+    // Constants
+    // a writer that doesn't leave its region in time has most likely died
+    private static final long WRITERS_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // Fields
+    private final ByteBuffer sharedMemory;
+    private final int counterCount;
+    private final int regionSize;
+    private final int edgesOffset;
+    @Getter
+    private final int edgeMapSize;
+
+    // Constructor
+    /**
+     * Opens the shared memory of a running agent.
+     */
+    public SharedMemoryCodeCoverageReader() {
+        this(openSharedMemory(false));
+    }
+
+    SharedMemoryCodeCoverageReader(ByteBuffer sharedMemory) {
+        this.sharedMemory = sharedMemory;
+        if (sharedMemory.limit() < HEADER_SIZE || (int) INT.getVolatile(sharedMemory, MAGIC_OFFSET) != MAGIC) {
+            throw new IllegalStateException("Shared memory isn't initialized by the agent.");
+        }
+        if ((int) INT.get(sharedMemory, VERSION_OFFSET) != VERSION) {
+            throw new IllegalStateException("Unsupported shared memory version "
+                    + INT.get(sharedMemory, VERSION_OFFSET) + ".");
+        }
+        this.counterCount = (int) INT.get(sharedMemory, COUNTER_COUNT_OFFSET);
+        this.regionSize = (int) INT.get(sharedMemory, REGION_SIZE_OFFSET);
+        this.edgesOffset = (int) INT.get(sharedMemory, EDGES_OFFSET_OFFSET);
+        this.edgeMapSize = (int) INT.get(sharedMemory, EDGE_MAP_SIZE_OFFSET);
+    }
+
+    // Methods
+    /**
+     * @return number of counters, the method count of the distance table
+     */
+    public int size() {
+        return this.counterCount;
+    }
+
+    public int getEpoch() {
+        return (int) INT.getVolatile(this.sharedMemory, EPOCH_OFFSET);
+    }
+
+    /**
+     * Takes and resets the hits since the last drain, the agent keeps counting in the other region meanwhile.
+     * @return hits per method id
+     */
+    public int[] drain() {
+        return drain((byte[]) null);
+    }
+
+    /**
+     * Like {@link #drain()}, also takes the edge bitmap.
+     * @param edges receives the edge bitmap, at least {@link #getEdgeMapSize()} long; null to discard it
+     * @return hits per method id
+     */
+    public int[] drain(byte[] edges) {
+        int epoch = (int) INT.getAndAdd(this.sharedMemory, EPOCH_OFFSET, 1);
+        int region = epoch & 1;
+
+        // writers that saw the old epoch are about to finish, later ones use the other region
+        long deadline = System.nanoTime() + WRITERS_TIMEOUT_NANOS;
+        while ((int) INT.getVolatile(this.sharedMemory, writersOffset(region)) != 0) {
+            if (System.nanoTime() - deadline > 0) {
+                // the agent is gone, the next one creates the shared memory anew
+                break;
+            }
+            LockSupport.parkNanos(1000);
+        }
+
+        int offset = HEADER_SIZE + region * this.regionSize;
+        int[] counts = new int[this.counterCount];
+        for (int id = 0; id < this.counterCount; id++) {
+            counts[id] = (int) INT.getAndSet(this.sharedMemory, offset + Integer.BYTES * id, 0);
+        }
+
+        // writers are done with the region, the edges don't need atomic access
+        for (int edge = 0; edge < this.edgeMapSize; edge++) {
+            int edgeOffset = offset + this.edgesOffset + edge;
+            if (edges != null) {
+                edges[edge] = this.sharedMemory.get(edgeOffset);
+            }
+            this.sharedMemory.put(edgeOffset, (byte) 0);
+        }
+        return counts;
+    }
+
+    /**
+     * @param targets the distance table the agent was started with
+     * @return hits per class:method since the last drain
+     */
+    public Map<String, Integer> drain(DistanceTable targets) {
+        if (targets.size() != this.counterCount) {
+            throw new IllegalArgumentException("The agent uses a different distance table.");
+        }
+        return toCoverage(drain(), targets);
+    }
+
+    static Map<String, Integer> toCoverage(int[] counts, DistanceTable targets) {
+        Map<String, Integer> coverage = new LinkedHashMap<>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] != 0) {
+                coverage.put(targets.getClassName(id) + ':' + targets.getMethodName(id), counts[id]);
+            }
+        }
+        return coverage;
+    }
+}
@@ -1,5 +1,322 @@
 package com.axelkoolhaas.rusa.dyn.coverage;
 
-public class TcpCodeCoverageStore {
+import com.axelkoolhaas.rusa.dyn.Feedback;
+import com.axelkoolhaas.rusa.dyn.FeedbackAggregator;
+import com.axelkoolhaas.rusa.dyn.FeedbackCodec;
+import com.axelkoolhaas.rusa.model.table.DistanceTable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams the feedback to any number of consumers over TCP or a Unix domain socket, a lower latency alternative to
+ * the ZMQ request/reply loop for a fuzzer that just wants every hit.
+ * Every frame is a big-endian int length and a payload in the binary protocol of {@link FeedbackCodec}: first the
+ * method dictionary, then a feedback frame with the hits since the previous one, at most every flush interval.
+ * <p>
+ * One selector thread accepts, drains the hits and writes; instrumented threads only touch the lock-free
+ * {@link FeedbackAggregator}. Pending frames of a consumer are written with one gathering write. While a consumer
+ * is more than {@link #MAX_PENDING_BYTES} behind, its new feedback is merged into one backlog frame that is sent
+ * once it catches up, so only that consumer gets fewer and larger frames and it doesn't lose hits. The backlog has
+ * at most one entry per method and edge, so a consumer that stops reading can't grow it without bound.
+ */
+public class TcpCodeCoverageStore implements CodeCoverageStore, Runnable {
+    // Constants
+    static final int MAX_PENDING_BYTES = 4 << 20;
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    // Fields
+    private static final Logger logger = LogManager.getLogger(TcpCodeCoverageStore.class);
+    private final DistanceTable targets;
+    private final FeedbackAggregator feedback;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final byte[] dictionary;
+    private final long flushInterval;
+    // socket file to remove on shutdown, null for TCP
+    private final Path unixPath;
+    // hits streamed since the last reset
+    private final AtomicIntegerArray totals;
+    // reset waiting for the selector thread
+    private final AtomicReference<CountDownLatch> resetRequest = new AtomicReference<>();
+
+    // Constructor
+    private TcpCodeCoverageStore(DistanceTable targets, SocketAddress address, long flushInterval)
+            throws IOException {
+        this.targets = targets;
+        this.feedback = new FeedbackAggregator(targets);
+        this.dictionary = FeedbackCodec.encodeDictionary(targets);
+        this.flushInterval = flushInterval;
+        this.totals = new AtomicIntegerArray(targets.size());
+
+        if (address instanceof UnixDomainSocketAddress unixAddress) {
+            this.unixPath = unixAddress.getPath();
+            // left behind by a previous run that didn't shut down
+            Files.deleteIfExists(this.unixPath);
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.unixPath = null;
+            this.server = ServerSocketChannel.open();
+            this.server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        }
+        this.server.bind(address);
+        this.server.configureBlocking(false);
+
+        this.selector = Selector.open();
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Binds the socket and starts streaming.
+     * @param coverage tcp:&lt;port&gt; or unix:&lt;path&gt;
+     * @param flushInterval milliseconds between feedback frames
+     */
+    public static TcpCodeCoverageStore start(String coverage, DistanceTable targets, long flushInterval)
+            throws IOException {
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("Flush interval must be at least 1 ms.");
+        }
+
+        SocketAddress address;
+        if (coverage.startsWith("tcp:")) {
+            address = new InetSocketAddress(Integer.parseInt(coverage.substring("tcp:".length())));
+        } else if (coverage.startsWith("unix:")) {
+            address = UnixDomainSocketAddress.of(coverage.substring("unix:".length()));
+        } else {
+            throw new IllegalArgumentException("Unrecognized coverage address: " + coverage);
+        }
+
+        TcpCodeCoverageStore store = new TcpCodeCoverageStore(targets, address, flushInterval);
+        Thread thread = new Thread(store, "rusa-coverage");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close));
+        logger.info("Streaming coverage of {} methods on {}.", targets.size(), address);
+        return store;
+    }
+
+    @Override
+    public void increment(int id, int edge) {
+        this.feedback.add(id, edge);
+    }
+
+    @Override
+    public Map<String, Integer> getCoverage() {
+        Map<String, Integer> coverage = new LinkedHashMap<>();
+        for (int id = 0; id < this.totals.length(); id++) {
+            int hits = this.totals.get(id);
+            if (hits != 0) {
+                coverage.put(this.targets.getClassName(id) + ':' + this.targets.getMethodName(id), hits);
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * The selector thread drains the hits so far, they are still streamed but no longer counted.
+     */
+    @Override
+    public synchronized void reset() {
+        CountDownLatch done = new CountDownLatch(1);
+        this.resetRequest.set(done);
+        this.selector.wakeup();
+        try {
+            if (!done.await(1, TimeUnit.SECONDS)) {
+                logger.warn("Coverage stream didn't reset in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops accepting consumers and removes the socket file.
+     */
+    public void close() {
+        try {
+            this.server.close();
+            if (this.unixPath != null) {
+                Files.deleteIfExists(this.unixPath);
+            }
+        } catch (IOException e) {
+            logger.error("Could not close coverage stream: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastFlush = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                this.selector.select(this.flushInterval);
+                for (SelectionKey key : this.selector.selectedKeys()) {
+                    handle(key);
+                }
+                this.selector.selectedKeys().clear();
+
+                CountDownLatch reset = this.resetRequest.getAndSet(null);
+                if (reset != null) {
+                    flush(false);
+                    for (int id = 0; id < this.totals.length(); id++) {
+                        this.totals.set(id, 0);
+                    }
+                    reset.countDown();
+                }
+
+                if (System.nanoTime() - lastFlush >= TimeUnit.MILLISECONDS.toNanos(this.flushInterval)) {
+                    flush(true);
+                    lastFlush = System.nanoTime();
+                }
+            } catch (IOException e) {
+                logger.error("Coverage stream failed: {}", e.getMessage(), e);
+                return;
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+
+        if (key.isAcceptable()) {
+            SocketChannel channel = this.server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            if (channel.getRemoteAddress() instanceof InetSocketAddress) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            Consumer consumer = new Consumer(channel);
+            SelectionKey consumerKey = channel.register(this.selector, SelectionKey.OP_READ, consumer);
+            logger.info("Coverage consumer connected.");
+            enqueue(consumerKey, this.dictionary);
+            return;
+        }
+
+        Consumer consumer = (Consumer) key.attachment();
+        try {
+            if (key.isReadable() && consumer.channel.read(consumer.discard.clear()) < 0) {
+                // consumers only listen, end of stream is a disconnect
+                disconnect(key);
+                return;
+            }
+            if (key.isWritable()) {
+                write(key);
+            }
+        } catch (IOException e) {
+            disconnect(key);
+        }
+    }
+
+    /**
+     * Drains the hits into a frame for every consumer that keeps up, a lagging consumer's feedback is merged into
+     * its backlog.
+     * @param count whether the hits add to the totals
+     */
+    private void flush(boolean count) {
+        Feedback feedback = this.feedback.drain();
+        if (count) {
+            for (int i = 0; i < feedback.size(); i++) {
+                this.totals.addAndGet(feedback.getId(i), feedback.getHits(i));
+            }
+        }
+
+        byte[] frame = feedback.size() > 0 ? FeedbackCodec.encode(feedback) : null;
+        for (SelectionKey key : this.selector.keys()) {
+            if (!(key.attachment() instanceof Consumer consumer) || !key.isValid()) {
+                continue;
+            }
+
+            if (consumer.pendingBytes > MAX_PENDING_BYTES) {
+                if (frame != null) {
+                    consumer.backlog = consumer.backlog == null ? feedback : consumer.backlog.merge(feedback);
+                }
+            } else if (consumer.backlog != null) {
+                // caught up, everything it missed in one frame
+                Feedback backlog = frame != null ? consumer.backlog.merge(feedback) : consumer.backlog;
+                consumer.backlog = null;
+                enqueue(key, FeedbackCodec.encode(backlog));
+            } else if (frame != null) {
+                enqueue(key, frame);
+            }
+        }
+    }
+
+    private void enqueue(SelectionKey key, byte[] payload) {
+        Consumer consumer = (Consumer) key.attachment();
+        consumer.pending.add(ByteBuffer.allocate(LENGTH_BYTES).putInt(0, payload.length));
+        consumer.pending.add(ByteBuffer.wrap(payload));
+        consumer.pendingBytes += LENGTH_BYTES + payload.length;
+
+        try {
+            write(key);
+        } catch (IOException e) {
+            disconnect(key);
+        }
+    }
+
+    /**
+     * Writes all pending frames at once, waits for the socket to become writable if they don't fit.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Consumer consumer = (Consumer) key.attachment();
+        if (!key.isValid()) {
+            return;
+        }
+
+        long written = consumer.channel.write(consumer.pending.toArray(new ByteBuffer[0]));
+        consumer.pendingBytes -= written;
+        while (!consumer.pending.isEmpty() && !consumer.pending.peekFirst().hasRemaining()) {
+            consumer.pending.pollFirst();
+        }
+
+        key.interestOps(consumer.pending.isEmpty()
+                ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void disconnect(SelectionKey key) {
+        logger.info("Coverage consumer disconnected.");
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    private static class Consumer {
+        private final SocketChannel channel;
+        // length prefixes and payloads not written yet
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        private long pendingBytes = 0;
+        // feedback merged while the consumer was too far behind
+        private Feedback backlog;
+        private final ByteBuffer discard = ByteBuffer.allocate(256);
+
+        private Consumer(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
 }
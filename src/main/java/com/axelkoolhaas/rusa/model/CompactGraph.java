@@ -0,0 +1,218 @@
+package com.axelkoolhaas.rusa.model;
+
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Call graph in compressed sparse row (CSR) form.
+ * Nodes are method nodes together with their class node, identified by an int id; node 0 is the root.
+ * Edges are deduplicated and stored in both directions as offset and edge arrays,
+ * the callees of node n are {@code callees[calleeOffsets[n] .. calleeOffsets[n + 1]]}.
+ */
+public class CompactGraph {
+    // Constants
+    public static final int ROOT = 0;
+    public static final int UNREACHABLE = -1;
+
+    // Fields
+    private final ExtendedClassNode[] owners; // null for the root
+    private final MethodNode[] methods; // null for the root
+    private final int[] calleeOffsets; // children
+    private final int[] callees;
+    private final int[] callerOffsets; // parents
+    private final int[] callers;
+    private final double[] distances;
+
+    // Constructor
+    private CompactGraph(ExtendedClassNode[] owners, MethodNode[] methods,
+                         int[] calleeOffsets, int[] callees, int[] callerOffsets, int[] callers) {
+        this.owners = owners;
+        this.methods = methods;
+        this.calleeOffsets = calleeOffsets;
+        this.callees = callees;
+        this.callerOffsets = callerOffsets;
+        this.callers = callers;
+        this.distances = new double[owners.length];
+        Arrays.fill(this.distances, UNREACHABLE);
+    }
+
+    /**
+     * Builds the graph from an edge list.
+     * Duplicate edges (one per call site) are dropped, the callees of a node keep the order of their first call.
+     * @param owners class node per node id, null for the root
+     * @param methods method node per node id, null for the root
+     * @param edgeSources caller node id per edge
+     * @param edgeTargets callee node id per edge
+     */
+    public static CompactGraph of(List<ExtendedClassNode> owners, List<MethodNode> methods,
+                                  IntList edgeSources, IntList edgeTargets) {
+        int nodeCount = owners.size();
+        int edgeCount = edgeSources.size();
+
+        // forward: stable counting sort by caller
+        int[] calleeOffsets = new int[nodeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            calleeOffsets[edgeSources.get(i) + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            calleeOffsets[node + 1] += calleeOffsets[node];
+        }
+        int[] sortedCallees = new int[edgeCount];
+        int[] next = Arrays.copyOf(calleeOffsets, nodeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            sortedCallees[next[edgeSources.get(i)]++] = edgeTargets.get(i);
+        }
+
+        // deduplicate per caller, lastSeen[callee] holds the last caller (+1) that had it
+        int[] lastSeen = new int[nodeCount];
+        int[] callees = new int[edgeCount];
+        int[] dedupOffsets = new int[nodeCount + 1];
+        int uniqueCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            for (int i = calleeOffsets[node]; i < calleeOffsets[node + 1]; i++) {
+                int callee = sortedCallees[i];
+                if (lastSeen[callee] != node + 1) {
+                    lastSeen[callee] = node + 1;
+                    callees[uniqueCount++] = callee;
+                }
+            }
+            dedupOffsets[node + 1] = uniqueCount;
+        }
+        callees = Arrays.copyOf(callees, uniqueCount);
+
+        // reverse: counting sort by callee
+        int[] callerOffsets = new int[nodeCount + 1];
+        for (int callee : callees) {
+            callerOffsets[callee + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            callerOffsets[node + 1] += callerOffsets[node];
+        }
+        int[] callers = new int[uniqueCount];
+        next = Arrays.copyOf(callerOffsets, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            for (int i = dedupOffsets[node]; i < dedupOffsets[node + 1]; i++) {
+                callers[next[callees[i]]++] = node;
+            }
+        }
+
+        return new CompactGraph(owners.toArray(new ExtendedClassNode[0]), methods.toArray(new MethodNode[0]),
+                dedupOffsets, callees, callerOffsets, callers);
+    }
+
+    // Getters and setters
+    public int size() {
+        return this.owners.length;
+    }
+
+    public int getEdgeCount() {
+        return this.callees.length;
+    }
+
+    public ExtendedClassNode getOwner(int node) {
+        return this.owners[node];
+    }
+
+    public MethodNode getMethod(int node) {
+        return this.methods[node];
+    }
+
+    public boolean isRoot(int node) {
+        return node == ROOT;
+    }
+
+    public int getCalleeCount(int node) {
+        return this.calleeOffsets[node + 1] - this.calleeOffsets[node];
+    }
+
+    public int getCallee(int node, int index) {
+        return this.callees[this.calleeOffsets[node] + index];
+    }
+
+    public int getCallerCount(int node) {
+        return this.callerOffsets[node + 1] - this.callerOffsets[node];
+    }
+
+    public int getCaller(int node, int index) {
+        return this.callers[this.callerOffsets[node] + index];
+    }
+
+    /**
+     * @return distance to the target, {@link #UNREACHABLE} if the target can't be reached; merged distances of
+     *         several targets can be fractional
+     */
+    public double getDistance(int node) {
+        return this.distances[node];
+    }
+
+    public void setDistance(int node, double distance) {
+        this.distances[node] = distance;
+    }
+
+    /**
+     * Replaces all distances, e.g. with the result of a distance pass.
+     */
+    public void setDistances(double[] distances) {
+        if (distances.length != this.distances.length) {
+            throw new IllegalArgumentException("Expected " + this.distances.length + " distances, got "
+                    + distances.length + ".");
+        }
+        System.arraycopy(distances, 0, this.distances, 0, distances.length);
+    }
+
+    public boolean hasDistance(int node) {
+        return this.distances[node] != UNREACHABLE;
+    }
+
+    /**
+     * @return the distance as a number for the exporters, whole distances without a fraction
+     */
+    public static Number toNumber(double distance) {
+        return distance == Math.rint(distance) ? (Number) (long) distance : (Number) distance;
+    }
+
+    public String getInternalPath(int node) {
+        if (isRoot(node)) {
+            return "root";
+        }
+
+        return this.owners[node].name.replace('/', '.');
+    }
+
+    public String getType(int node) {
+        if (isRoot(node)) {
+            return "root";
+        }
+
+        String name = this.owners[node].name;
+        String typeName = name.substring(name.lastIndexOf('/') + 1);
+        if (this.owners[node].isInterface()) {
+            typeName = "(I)" + typeName;
+        }
+
+        return typeName;
+    }
+
+    public boolean isInterface(int node) {
+        return !isRoot(node) && this.owners[node].isInterface();
+    }
+
+    // Methods
+    public String print(int node) {
+        if (isRoot(node)) {
+            return "root";
+        }
+
+        return this.owners[node].name + "::" + this.methods[node].name;
+    }
+
+    public String printAbbrev(int node) {
+        if (isRoot(node)) {
+            return "root";
+        }
+
+        return getType(node) + "::" + this.methods[node].name;
+    }
+}
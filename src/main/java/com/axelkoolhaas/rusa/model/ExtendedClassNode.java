@@ -1,9 +1,23 @@
 package com.axelkoolhaas.rusa.model;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 
 public class ExtendedClassNode extends ClassNode {
+    private static final Logger logger = LogManager.getLogger(ExtendedClassNode.class);
+
+    // Class file of a node read without code, method bodies are parsed from it on first use
+    private byte[] deferredCode;
+    // name + descriptor -> method and name -> first method with that name, built on first lookup
+    private volatile Map<String, MethodNode> methodIndex;
 
     public ExtendedClassNode(int api) {
         super(api);
@@ -16,4 +30,75 @@ public class ExtendedClassNode extends ClassNode {
     public boolean isClass() {
         return (this.access & Opcodes.ACC_INTERFACE) == 0;
     }
+
+    /**
+     * Finds a declared method by name and descriptor.
+     * If no method has the exact descriptor (e.g. a bridge or generic signature), the first method
+     * with that name is returned instead.
+     */
+    public Optional<MethodNode> findMethod(String name, String desc) {
+        Map<String, MethodNode> index = getMethodIndex();
+        MethodNode method = desc == null ? null : index.get(name + desc);
+        return Optional.ofNullable(method != null ? method : index.get(name));
+    }
+
+    private Map<String, MethodNode> getMethodIndex() {
+        Map<String, MethodNode> index = this.methodIndex;
+        if (index == null) {
+            // descriptors start with '(', so both kinds of keys can share one map
+            index = new HashMap<>(this.methods.size() * 4);
+            for (MethodNode method : this.methods) {
+                index.putIfAbsent(method.name + method.desc, method);
+                index.putIfAbsent(method.name, method);
+            }
+            this.methodIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Remember the class file of a node that was read with {@link ClassReader#SKIP_CODE}.
+     */
+    public void deferCode(byte[] classFileBytes) {
+        this.deferredCode = classFileBytes;
+    }
+
+    /**
+     * Parses the method bodies of a node that was read without code.
+     * The instructions are moved into the existing method nodes, so references to them stay valid.
+     */
+    public synchronized void loadCode() {
+        if (this.deferredCode == null) {
+            return;
+        }
+
+        ClassNode fullNode = new ClassNode(this.api);
+        try {
+            new ClassReader(this.deferredCode).accept(fullNode, 0);
+        } catch (Exception e) {
+            logger.error("Failed to parse method bodies of {} with ASM reader.", this.name);
+            logger.error(e.getMessage());
+            this.deferredCode = null;
+            return;
+        }
+        this.deferredCode = null;
+
+        if (fullNode.methods.size() != this.methods.size()) {
+            logger.error("Method mismatch while parsing method bodies of {}.", this.name);
+            return;
+        }
+
+        for (int i = 0; i < this.methods.size(); i++) {
+            MethodNode method = this.methods.get(i);
+            MethodNode fullMethod = fullNode.methods.get(i);
+
+            method.instructions = fullMethod.instructions;
+            method.tryCatchBlocks = fullMethod.tryCatchBlocks;
+            method.localVariables = fullMethod.localVariables;
+            method.visibleLocalVariableAnnotations = fullMethod.visibleLocalVariableAnnotations;
+            method.invisibleLocalVariableAnnotations = fullMethod.invisibleLocalVariableAnnotations;
+            method.maxStack = fullMethod.maxStack;
+            method.maxLocals = fullMethod.maxLocals;
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package com.axelkoolhaas.rusa.model;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints, avoids boxing for node ids and edges.
+ */
+public class IntList {
+    // Fields
+    private int[] values;
+    private int size;
+
+    // Constructor
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        this.values = new int[Math.max(1, capacity)];
+    }
+
+    // Getters and setters
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return this.values[index];
+    }
+
+    // Methods
+    public void add(int value) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        }
+        this.values[this.size++] = value;
+    }
+
+    public void addAll(IntList other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.values[i]);
+        }
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+}
@@ -11,6 +11,9 @@ public class CommandLineTarget {
     String internalClassName;
     @Getter
     String methodName;
+    // optional, null matches every overload
+    @Getter
+    String descriptor;
 //    @Getter
 //        Long lineNumber;
 }
@@ -11,13 +11,20 @@ public class JsonDTO {
     @Getter
     private final String method;
     @Getter
-    private final int distance;
+    private final double distance;
+    @Getter
+    private final Integer hits; // null for a single hit
     private final List<String> state; // Future: Input2State correspondence, now unused
 
-    public JsonDTO(String clazz, String method, int distance, List<String> state) {
+    public JsonDTO(String clazz, String method, double distance, List<String> state) {
+        this(clazz, method, distance, null, state);
+    }
+
+    public JsonDTO(String clazz, String method, double distance, Integer hits, List<String> state) {
         this.clazz = clazz;
         this.method = method;
         this.distance = distance;
+        this.hits = hits;
         this.state = state;
     }
 
@@ -29,7 +36,8 @@ public class JsonDTO {
     {
         "class":"com/axelkoolhaas/...",
         "method":"findArticle",
-        "distance": 1,
+        "distance": 1.0,
+        "hits": 3,
         "state": ["param1", "param2", "..."]
     }
      */
@@ -1,6 +1,5 @@
 package com.axelkoolhaas.rusa.model.json;
 
-import com.axelkoolhaas.rusa.model.CompositeNode;
 import lombok.Getter;
 
 import java.util.LinkedList;
@@ -13,11 +12,11 @@ public class JsonMethod {
     private final String name;
 //    @NonNull
     @Getter
-    private final Integer distance;
+    private final Double distance;
 //    @Getter
 //    private final Integer hits; // TODO graph overlay. Update: not sure what I meant here?
 
-    public JsonMethod(String name, Integer distance) {
+    public JsonMethod(String name, Double distance) {
         this.name = name;
         this.distance = distance;
 //        this.hits = hits;
@@ -25,13 +24,4 @@ public class JsonMethod {
 
     @Getter
     private final List<JsonCallee> calls = new LinkedList<>();
-
-
-    public void addCallees(CompositeNode parent) {
-        parent.getCallees()
-                .forEach(cn ->
-                        this.calls.add(new JsonCallee(cn.getInternalPath(), cn.getMethod().name))
-                );
-    }
-
 }
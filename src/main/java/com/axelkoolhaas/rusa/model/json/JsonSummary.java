@@ -0,0 +1,57 @@
+package com.axelkoolhaas.rusa.model.json;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feedback of one request: the methods with distance that were hit, with their hit counts, the edges taken
+ * between them and aggregates over all hits. The size only depends on the number of distinct methods and edges
+ * hit, not on how often they were hit.
+ */
+public class JsonSummary {
+    @Getter
+    private final long hits;
+    @Getter
+    private final Double minDistance; // null without hits
+    @Getter
+    private final Double meanDistance; // per hit, null without hits
+    private final long[] histogram; // hits per distance rounded up, the last bucket holds all larger distances
+    private final List<JsonDTO> methods; // in order of first hit
+    private final Map<Integer, Integer> edges; // hits per non-zero slot of the edge bitmap
+
+    public JsonSummary(long hits, Double minDistance, Double meanDistance, long[] histogram, List<JsonDTO> methods,
+                       Map<Integer, Integer> edges) {
+        this.hits = hits;
+        this.minDistance = minDistance;
+        this.meanDistance = meanDistance;
+        this.histogram = histogram;
+        this.methods = methods;
+        this.edges = edges;
+    }
+
+    public long[] getHistogram() {
+        return this.histogram.clone();
+    }
+
+    public List<JsonDTO> getMethods() {
+        return Collections.unmodifiableList(this.methods);
+    }
+
+    public Map<Integer, Integer> getEdges() {
+        return Collections.unmodifiableMap(this.edges);
+    }
+
+    /* JSON example
+    {
+        "hits": 4,
+        "minDistance": 0.0,
+        "meanDistance": 0.75,
+        "histogram": [1, 3, 0, ...],
+        "methods": [{"clazz":"com/axelkoolhaas/...", "method":"findArticle", "distance":1.0, "hits":3}, ...],
+        "edges": {"40503": 3, "7211": 1, ...}
+    }
+     */
+}
@@ -0,0 +1,206 @@
+package com.axelkoolhaas.rusa.model.table;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only distance table of the methods with a distance, written by {@link DistanceTableWriter}.
+ * Meant to be memory-mapped by the agent: lookups read the buffer directly and don't allocate, strings are stored
+ * as UTF-16 so they can be compared to a {@link String} char by char.
+ * <pre>
+ * header   magic, version, string count, class count, method count, index capacity
+ * offsets  int[string count + 1], start of every string in the pool, in chars
+ * classes  int[class count], string id of every class name
+ * methods  (class index, method name string id, float distance)[method count], the method id is the record index
+ * index    int[index capacity], open addressing hash index of method id + 1, 0 is an empty slot
+ * pool     char[], all strings
+ * </pre>
+ */
+public class DistanceTable {
+    // Constants
+    static final int MAGIC = 0x52534454; // RSDT
+    static final int VERSION = 2;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int HEADER_SIZE = 6 * Integer.BYTES;
+    static final int METHOD_RECORD_INTS = 3;
+    public static final int NOT_FOUND = -1;
+
+    // Fields
+    private final IntBuffer offsets;
+    private final IntBuffer classes;
+    private final IntBuffer methods;
+    private final IntBuffer index;
+    private final CharBuffer pool;
+    private final int classCount;
+    private final int methodCount;
+
+    // Constructor
+    private DistanceTable(ByteBuffer buffer) {
+        buffer.order(BYTE_ORDER);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a distance table.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported distance table version " + buffer.getInt(4) + ".");
+        }
+
+        int stringCount = buffer.getInt(8);
+        this.classCount = buffer.getInt(12);
+        this.methodCount = buffer.getInt(16);
+        int indexCapacity = buffer.getInt(20);
+        if (Integer.bitCount(indexCapacity) != 1) {
+            throw new IllegalArgumentException("Corrupt distance table index.");
+        }
+
+        int position = HEADER_SIZE;
+        this.offsets = ints(buffer, position, stringCount + 1);
+        position += Integer.BYTES * (stringCount + 1);
+        this.classes = ints(buffer, position, this.classCount);
+        position += Integer.BYTES * this.classCount;
+        this.methods = ints(buffer, position, METHOD_RECORD_INTS * this.methodCount);
+        position += Integer.BYTES * METHOD_RECORD_INTS * this.methodCount;
+        this.index = ints(buffer, position, indexCapacity);
+        position += Integer.BYTES * indexCapacity;
+        this.pool = buffer.slice(position, Character.BYTES * this.offsets.get(stringCount))
+                .order(BYTE_ORDER)
+                .asCharBuffer();
+    }
+
+    // Methods
+    /**
+     * Memory-maps a distance table file.
+     */
+    public static DistanceTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new DistanceTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static DistanceTable wrap(ByteBuffer buffer) {
+        return new DistanceTable(buffer);
+    }
+
+    /**
+     * @return true if the file starts like a distance table, e.g. to tell it apart from the JSON distance tree
+     */
+    public static boolean isDistanceTable(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] magic = in.readNBytes(Integer.BYTES);
+            return magic.length == Integer.BYTES && ByteBuffer.wrap(magic).order(BYTE_ORDER).getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds a method without allocating.
+     * @param className class name as the agent sees it, e.g. com.example.Controller
+     * @return method id, {@link #NOT_FOUND} if the method has no distance
+     */
+    public int lookup(String className, String methodName) {
+        int mask = this.index.limit() - 1;
+        int slot = slot(hash(className, methodName), this.index.limit());
+
+        // the index is at most half full, so there always is an empty slot
+        for (int entry = this.index.get(slot); entry != 0; entry = this.index.get(slot)) {
+            int id = entry - 1;
+            if (matches(getMethodString(id), methodName)
+                    && matches(this.classes.get(this.methods.get(id * METHOD_RECORD_INTS)), className)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    public int size() {
+        return this.methodCount;
+    }
+
+    public double getDistance(int id) {
+        return Float.intBitsToFloat(this.methods.get(id * METHOD_RECORD_INTS + 2));
+    }
+
+    public String getClassName(int id) {
+        return getString(this.classes.get(this.methods.get(id * METHOD_RECORD_INTS)));
+    }
+
+    public String getMethodName(int id) {
+        return getString(getMethodString(id));
+    }
+
+    /**
+     * @return names of all classes with a method with distance
+     */
+    public List<String> getClassNames() {
+        String[] classNames = new String[this.classCount];
+        for (int i = 0; i < this.classCount; i++) {
+            classNames[i] = getString(this.classes.get(i));
+        }
+        return List.of(classNames);
+    }
+
+    /**
+     * @return distinct names of all methods with distance
+     */
+    public Set<String> getMethodNames() {
+        Set<String> methodNames = new LinkedHashSet<>();
+        for (int id = 0; id < this.methodCount; id++) {
+            methodNames.add(getMethodName(id));
+        }
+        return methodNames;
+    }
+
+    private int getMethodString(int id) {
+        return this.methods.get(id * METHOD_RECORD_INTS + 1);
+    }
+
+    private String getString(int string) {
+        int start = this.offsets.get(string);
+        int end = this.offsets.get(string + 1);
+        char[] chars = new char[end - start];
+        this.pool.get(start, chars);
+        return new String(chars);
+    }
+
+    private boolean matches(int string, String value) {
+        int start = this.offsets.get(string);
+        int length = this.offsets.get(string + 1) - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.pool.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int position, int count) {
+        return buffer.slice(position, Integer.BYTES * count).order(BYTE_ORDER).asIntBuffer();
+    }
+
+    /**
+     * String hash codes are cached by the JVM, so hashing a lookup is cheap.
+     */
+    static int hash(String className, String methodName) {
+        return className.hashCode() * 31 + methodName.hashCode();
+    }
+
+    static int slot(int hash, int capacity) {
+        // spread the high bits, like HashMap
+        return (hash ^ (hash >>> 16)) & (capacity - 1);
+    }
+}
@@ -0,0 +1,147 @@
+package com.axelkoolhaas.rusa.model.table;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.axelkoolhaas.rusa.model.table.DistanceTable.*;
+
+/**
+ * Builds a {@link DistanceTable}, either as a file for the agent or in memory.
+ * Methods get their id in the order they are added.
+ */
+public class DistanceTableWriter {
+    // Fields
+    // string -> id in the string pool
+    private final Map<String, Integer> strings;
+    // class string id -> class index
+    private final Map<Integer, Integer> classes;
+    // class.method -> method id, to drop duplicates
+    private final Set<String> methodKeys;
+    private final List<String> stringList;
+    private final List<Integer> classList;
+    private final List<int[]> methods;
+    private final List<Integer> hashes;
+
+    // Constructor
+    public DistanceTableWriter() {
+        this.strings = new HashMap<>();
+        this.classes = new HashMap<>();
+        this.methodKeys = new HashSet<>();
+        this.stringList = new ArrayList<>();
+        this.classList = new ArrayList<>();
+        this.methods = new ArrayList<>();
+        this.hashes = new ArrayList<>();
+    }
+
+    // Methods
+    /**
+     * Adds a method with a distance, only the first distance of a class and method name pair is kept.
+     * @param className class name as the agent sees it, e.g. com.example.Controller
+     */
+    public void add(String className, String methodName, double distance) {
+        if (!this.methodKeys.add(className + '#' + methodName)) {
+            return;
+        }
+
+        int classString = intern(className);
+        int classIndex = this.classes.computeIfAbsent(classString, s -> {
+            this.classList.add(s);
+            return this.classList.size() - 1;
+        });
+
+        this.methods.add(new int[]{classIndex, intern(methodName), Float.floatToIntBits((float) distance)});
+        this.hashes.add(hash(className, methodName));
+    }
+
+    public int size() {
+        return this.methods.size();
+    }
+
+    public void write(Path path) throws IOException {
+        ByteBuffer buffer = toByteBuffer();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public ByteBuffer toByteBuffer() {
+        int charCount = this.stringList.stream().mapToInt(String::length).sum();
+        int indexCapacity = indexCapacity(this.methods.size());
+
+        int size = HEADER_SIZE
+                + Integer.BYTES * (this.stringList.size() + 1)
+                + Integer.BYTES * this.classList.size()
+                + Integer.BYTES * METHOD_RECORD_INTS * this.methods.size()
+                + Integer.BYTES * indexCapacity
+                + Character.BYTES * charCount;
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(BYTE_ORDER);
+
+        // header
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(this.stringList.size())
+                .putInt(this.classList.size())
+                .putInt(this.methods.size())
+                .putInt(indexCapacity);
+
+        // string offsets, in chars
+        int offset = 0;
+        for (String string : this.stringList) {
+            buffer.putInt(offset);
+            offset += string.length();
+        }
+        buffer.putInt(offset);
+
+        for (int classString : this.classList) {
+            buffer.putInt(classString);
+        }
+
+        for (int[] method : this.methods) {
+            for (int value : method) {
+                buffer.putInt(value);
+            }
+        }
+
+        // open addressing with linear probing, slots hold method id + 1 and 0 is empty
+        int[] index = new int[indexCapacity];
+        for (int id = 0; id < this.methods.size(); id++) {
+            int slot = slot(this.hashes.get(id), indexCapacity);
+            while (index[slot] != 0) {
+                slot = (slot + 1) & (indexCapacity - 1);
+            }
+            index[slot] = id + 1;
+        }
+        for (int slot : index) {
+            buffer.putInt(slot);
+        }
+
+        for (String string : this.stringList) {
+            for (int i = 0; i < string.length(); i++) {
+                buffer.putChar(string.charAt(i));
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private int intern(String string) {
+        return this.strings.computeIfAbsent(string, s -> {
+            this.stringList.add(s);
+            return this.stringList.size() - 1;
+        });
+    }
+
+    /**
+     * Power of two with a load factor of at most 0.5.
+     */
+    private static int indexCapacity(int methodCount) {
+        return Integer.highestOneBit(Math.max(1, methodCount) * 2 - 1) << 1;
+    }
+}
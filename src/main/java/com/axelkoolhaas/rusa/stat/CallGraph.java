@@ -1,26 +1,27 @@
 package com.axelkoolhaas.rusa.stat;
 
-import com.axelkoolhaas.rusa.model.CompositeNode;
+import com.axelkoolhaas.rusa.model.CompactGraph;
 import com.axelkoolhaas.rusa.model.ExtendedClassNode;
+import com.axelkoolhaas.rusa.model.IntList;
 import com.axelkoolhaas.rusa.model.cmd.CommandLineTarget;
-import com.axelkoolhaas.rusa.model.json.JsonMethod;
-import com.axelkoolhaas.rusa.model.json.JsonNode;
-import com.axelkoolhaas.rusa.model.json.JsonNodes;
-import com.google.gson.Gson;
+import lombok.Getter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.tree.*;
 
 import javax.swing.text.html.Option;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static com.axelkoolhaas.rusa.AnalysisAssistant.SPRING_WEB_MVC;
+import static com.axelkoolhaas.rusa.model.CompactGraph.ROOT;
 
 public class CallGraph {
     private static final List<String> BLACKLIST = Arrays.asList("jdk", "java", "kotlin", "groovy");
@@ -28,19 +29,52 @@ public class CallGraph {
     private static final Logger logger = LogManager.getLogger(CallGraph.class);
     // Reference to the Java archive that is being analyzed
     private final Jar jar;
-     // The root of the graph used to navigate towards the entry methods
-    private final CompositeNode root;
+    // Number of workers used to explore the graph, 1 = sequential
+    private final int threads;
     // Methods that have already been parsed and shouldn't be explored anymore
-    private final HashSet<MethodNode> parsedMethods;
+    private final Set<MethodNode> parsedMethods;
     // A map to save time when searching destination methods
-    private final HashMap<MethodNode, CompositeNode> methodProcedureMap;
+    private final HashMap<MethodNode, Integer> methodProcedureMap;
+    // Nodes while constructing, the node id is the index and node 0 is the root used to navigate towards
+    // the entry methods
+    private final List<ExtendedClassNode> nodeOwners;
+    private final List<MethodNode> nodeMethods;
+    // Edges while constructing, one per call site
+    private final IntList edgeSources;
+    private final IntList edgeTargets;
+    // Method name -> node ids, to resolve targets
+    private final TargetIndex targetIndex;
+    // The constructed graph
+    @Getter
+    private CompactGraph graph;
+    // Resolved destinations of invoke instructions, keyed by owner.name + descriptor
+    private final Map<String, List<Map.Entry<ExtendedClassNode, MethodNode>>> resolvedCalls;
+    // Resolved destinations of invokedynamic instructions, keyed by caller class and handle
+    private final Map<String, Optional<MethodNode>> resolvedDynamicCalls;
+    // Methods with a *Mapping annotation, from the annotation index of the JAR
+    private Set<MethodNode> mappingMethods;
 
     // Constructor
     public CallGraph(Jar jar) {
+        this(jar, 1);
+    }
+
+    public CallGraph(Jar jar, int threads) {
         this.jar = jar;
-        this.root = CompositeNode.builder().root(true).build();
-        this.parsedMethods = new HashSet<>();
+        this.threads = Math.max(1, threads);
+        this.parsedMethods = ConcurrentHashMap.newKeySet();
         this.methodProcedureMap = new HashMap<>();
+        this.resolvedCalls = new ConcurrentHashMap<>();
+        this.resolvedDynamicCalls = new ConcurrentHashMap<>();
+        this.nodeOwners = new ArrayList<>();
+        this.nodeMethods = new ArrayList<>();
+        this.edgeSources = new IntList();
+        this.edgeTargets = new IntList();
+        this.targetIndex = new TargetIndex();
+        this.graph = null;
+
+        // root
+        createNode(null, null);
     }
 
     // Methods
@@ -48,37 +82,122 @@ public class CallGraph {
      * Construct the call graph by parsing the classes inside the jar.
      */
     public void construct() {
-        Queue<CompositeNode> unexploredMethods = new LinkedList<>();
+        IntList unexploredMethods = new IntList();
+        this.mappingMethods = findMappingMethods();
 
         // Find REST controller methods and add them to the queue.
-        this.jar.getClasses().values()
-                .stream()
+        this.findRestControllers()
                 .filter(classNode -> !classNode.name.startsWith(SPRING_WEB_MVC))
-                .filter(this::isRestController)
                 .flatMap(this::collectMappingMethods)
                 .forEach(pair -> addToUnexploredMethods(pair, unexploredMethods));
 
 
         if (!validMethods(unexploredMethods)) {
             logger.warn("No valid methods found");
+            buildGraph();
             return;
         }
 
         // link root to entry points
-        this.root.addCallees(unexploredMethods);
-        unexploredMethods.forEach(cn -> cn.addCaller(this.root));
+        for (int i = 0; i < unexploredMethods.size(); i++) {
+            addEdge(ROOT, unexploredMethods.get(i));
+        }
+
+        if (this.threads > 1) {
+            constructParallel(unexploredMethods);
+            buildGraph();
+            return;
+        }
 
         // We will do breadth first search parsing of the classes
         // since at lower levels we expect Spring native methods and/or libraries,
-        while (!unexploredMethods.isEmpty()) {
-            CompositeNode unexploredMethod = unexploredMethods.poll();
+        // the queue is only appended to, head is the next method to explore
+        for (int head = 0; head < unexploredMethods.size(); head++) {
+            int unexploredMethod = unexploredMethods.get(head);
 
-            Optional<List<CompositeNode>> callees = parseProcedure(unexploredMethod);
-            callees.ifPresent(unexploredMethods::addAll);
+            parseProcedure(unexploredMethod, unexploredMethods);
 
             // if (target == found) break;
             // NOTE: this would not be complete, since there could be multiple paths to a destination
         }
+
+        buildGraph();
+    }
+
+    /**
+     * Breadth first search one frontier (BFS level) at a time.
+     * Methods are claimed in frontier order, then their instructions are scanned and callees resolved on a
+     * fork-join pool, and finally the nodes are linked in frontier order again.
+     * Claiming and linking happen in the same order as the sequential search, so the resulting graph is identical.
+     */
+    private void constructParallel(IntList entryMethods) {
+        logger.info("Exploring call graph with {} workers.", this.threads);
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        IntList frontier = entryMethods;
+
+        try {
+            while (!frontier.isEmpty()) {
+                IntList claimedMethods = new IntList(frontier.size());
+                for (int i = 0; i < frontier.size(); i++) {
+                    if (parsedMethods.add(nodeMethods.get(frontier.get(i)))) {
+                        claimedMethods.add(frontier.get(i));
+                    }
+                }
+
+                List<List<Map.Entry<ExtendedClassNode, MethodNode>>> destinations = pool.submit(() ->
+                        IntStream.range(0, claimedMethods.size())
+                                .parallel()
+                                .mapToObj(i -> resolveProcedure(claimedMethods.get(i)))
+                                .toList())
+                        .get();
+
+                IntList nextFrontier = new IntList();
+                for (int i = 0; i < claimedMethods.size(); i++) {
+                    linkProcedure(claimedMethods.get(i), destinations.get(i), nextFrontier);
+                }
+                frontier = nextFrontier;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while exploring call graph.");
+            System.exit(1);
+        } catch (ExecutionException e) {
+            logger.error("Error while exploring call graph!");
+            logger.error(e.getCause().getMessage());
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Freezes the constructed nodes and edges into the compact graph, duplicate edges are dropped.
+     */
+    private void buildGraph() {
+        this.graph = CompactGraph.of(this.nodeOwners, this.nodeMethods, this.edgeSources, this.edgeTargets);
+        logger.info("Call graph has {} nodes and {} edges ({} call sites).",
+                this.graph.size(), this.graph.getEdgeCount(), this.edgeSources.size());
+
+        // construction state is no longer needed
+        this.edgeSources.clear();
+        this.edgeTargets.clear();
+        this.methodProcedureMap.clear();
+    }
+
+    private int createNode(ExtendedClassNode owner, MethodNode method) {
+        this.nodeOwners.add(owner);
+        this.nodeMethods.add(method);
+        int node = this.nodeOwners.size() - 1;
+
+        if (owner != null) {
+            this.targetIndex.add(node, owner, method);
+        }
+        return node;
+    }
+
+    private void addEdge(int caller, int callee) {
+        this.edgeSources.add(caller);
+        this.edgeTargets.add(callee);
     }
 
     /**
@@ -86,14 +205,14 @@ public class CallGraph {
      * @param unexploredMethods
      * @return true if all methods are valid, false otherwise
      */
-    private boolean validMethods(Queue<CompositeNode> unexploredMethods) {
+    private boolean validMethods(IntList unexploredMethods) {
         if (unexploredMethods.isEmpty()) {
             return false;
         }
         // Check if all methods really belong to their class
-        boolean valid = unexploredMethods
-                    .stream()
-                    .allMatch(compositeNode -> compositeNode.getOwner().methods.contains(compositeNode.getMethod()));
+        boolean valid = IntStream.range(0, unexploredMethods.size())
+                    .map(unexploredMethods::get)
+                    .allMatch(node -> nodeOwners.get(node).methods.contains(nodeMethods.get(node)));
         if (!valid) {
             logger.error("Found methods that don't belong to their class!");
         }
@@ -118,9 +237,8 @@ public class CallGraph {
             return restClassNode.interfaces
                     .stream()
 //                    .peek(interfaceName -> System.out.println("Found interface: " + interfaceName))
-                    .flatMap(interfaceName -> this.jar.getClasses().values()
-                            .stream()
-                            .filter(node -> node.name.equals(interfaceName)))
+                    .map(interfaceName -> this.jar.getClasses().get(interfaceName))
+                    .filter(Objects::nonNull)
 //                    .peek(interfaceNode -> System.out.println("Found interface: " + interfaceNode.name))
                     .flatMap(restInterfaceNode -> restInterfaceNode.methods
                             .stream()
@@ -133,72 +251,120 @@ public class CallGraph {
         }
     }
 
-    private boolean isRestController(ExtendedClassNode classNode) {
-        return classNode.visibleAnnotations != null &&
-                classNode.visibleAnnotations.stream()
-                        .anyMatch(annotation -> annotation.desc.endsWith("RestController;"));
+    /**
+     * Find REST controllers through the annotation index of the jar.
+     * Only the distinct annotation descriptors are matched, not every class.
+     */
+    private Stream<ExtendedClassNode> findRestControllers() {
+        return this.jar.getAnnotatedClasses().entrySet()
+                .stream()
+                .filter(annotatedClasses -> annotatedClasses.getKey().endsWith("RestController;"))
+                .flatMap(annotatedClasses -> annotatedClasses.getValue().stream())
+                // skip duplicates, and classes shadowed by another class with the same name
+                .filter(classNode -> this.jar.getClasses().get(classNode.name) == classNode)
+                .distinct();
+    }
+
+    private Set<MethodNode> findMappingMethods() {
+        Set<MethodNode> methods = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.jar.getAnnotatedMethods().forEach((annotation, annotatedMethods) -> {
+            if (annotation.endsWith("Mapping;")) {
+                annotatedMethods.forEach(annotatedMethod -> methods.add(annotatedMethod.getValue()));
+            }
+        });
+        return methods;
     }
 
     private boolean isMappingMethod(MethodNode methodNode) {
-        return methodNode.visibleAnnotations != null &&
-                methodNode.visibleAnnotations.stream()
-                        .anyMatch(annotation -> annotation.desc.endsWith("Mapping;"));
+        return this.mappingMethods.contains(methodNode);
     }
 
-    private void addToUnexploredMethods(Map.Entry<ExtendedClassNode, MethodNode> entry, Queue<CompositeNode> unexploredMethods) {
+    private void addToUnexploredMethods(Map.Entry<ExtendedClassNode, MethodNode> entry, IntList unexploredMethods) {
         ExtendedClassNode classNode = entry.getKey();
         MethodNode methodNode = entry.getValue();
 
-        unexploredMethods.add(CompositeNode.builder().owner(classNode).method(methodNode).build());
+        unexploredMethods.add(createNode(classNode, methodNode));
     }
 
-    private Optional<List<CompositeNode>> parseProcedure(CompositeNode toExploreCNMethod) {
+    private void parseProcedure(int toExploreMethod, IntList unexploredMethods) {
         // check if node has been parsed already, otherwise return
-        if (parsedMethods.contains(toExploreCNMethod.getMethod())) {
-            return Optional.empty();
-        }
         // haven't seen method before, remember it
-        parsedMethods.add(toExploreCNMethod.getMethod());
+        if (!parsedMethods.add(nodeMethods.get(toExploreMethod))) {
+            return;
+        }
 
         // potential return callees
-        List<CompositeNode> callees = new ArrayList<>();
+        linkProcedure(toExploreMethod, resolveProcedure(toExploreMethod), unexploredMethods);
+    }
+
+    /**
+     * Finds the destinations of all calls in a method, in instruction order.
+     * Doesn't modify the graph, so it is safe to run concurrently for different methods.
+     */
+    private List<Map.Entry<ExtendedClassNode, MethodNode>> resolveProcedure(int toExploreMethod) {
+        List<Map.Entry<ExtendedClassNode, MethodNode>> destinations = new ArrayList<>();
+        ExtendedClassNode calleeClass = nodeOwners.get(toExploreMethod);
+
+        // method bodies of lazily loaded classes are only parsed now
+        calleeClass.loadCode();
 
         // Iterate through instructions and look for calls
-        for (AbstractInsnNode insnNode : toExploreCNMethod.getMethod().instructions) {
+        for (AbstractInsnNode insnNode : nodeMethods.get(toExploreMethod).instructions) {
 
             if (insnNode.getType() == AbstractInsnNode.INVOKE_DYNAMIC_INSN) {
                 assert insnNode instanceof InvokeDynamicInsnNode;
-                parseInvokeDynamicInsn((InvokeDynamicInsnNode) insnNode, toExploreCNMethod).ifPresent(callees::add);
+                parseInvokeDynamicInsn((InvokeDynamicInsnNode) insnNode, calleeClass)
+                        .ifPresent(destMn -> destinations.add(new AbstractMap.SimpleEntry<>(calleeClass, destMn)));
             }
 
             if (insnNode.getType() == AbstractInsnNode.METHOD_INSN) {
                 assert insnNode instanceof MethodInsnNode;
-                parseMethodInsn((MethodInsnNode) insnNode, toExploreCNMethod).ifPresent(callees::addAll);
+                destinations.addAll(parseMethodInsn((MethodInsnNode) insnNode));
             }
         }
 
-        return callees.isEmpty() ? Optional.empty() : Optional.of(callees);
+        return destinations;
+    }
+
+    /**
+     * Links a method to its call destinations.
+     * @param callees receives the nodes that were created, i.e. still have to be explored
+     */
+    private void linkProcedure(int toExploreMethod, List<Map.Entry<ExtendedClassNode, MethodNode>> destinations,
+                               IntList callees) {
+        for (Map.Entry<ExtendedClassNode, MethodNode> destination : destinations) {
+            addOrCreateLink(toExploreMethod, destination.getKey(), destination.getValue())
+                    .ifPresent(callees::add);
+        }
     }
 
-    private Optional<CompositeNode> parseInvokeDynamicInsn(InvokeDynamicInsnNode dynamicIns, CompositeNode toExploreCNMethod) {
+    private Optional<MethodNode> parseInvokeDynamicInsn(InvokeDynamicInsnNode dynamicIns, ExtendedClassNode calleeClass) {
         // We ignore Java >= 9 String concatenation
         if (dynamicIns.bsm.getName().equals("makeConcatWithConstants")) {
             return Optional.empty();
         }
 
-        ExtendedClassNode calleeClass = toExploreCNMethod.getOwner();
         // find target of InvokeDynamic through BootstrapMethod Arguments
         Handle handle = (Handle)dynamicIns.bsmArgs[1];
 
+        String key = calleeClass.name + ' ' + handle.getOwner() + '.' + handle.getName() + handle.getDesc();
+        Optional<MethodNode> optionalDestMn = this.resolvedDynamicCalls.get(key);
+        if (optionalDestMn == null) {
+            optionalDestMn = resolveInvokeDynamicInsn(handle, calleeClass);
+            this.resolvedDynamicCalls.put(key, optionalDestMn);
+        }
+
+        return optionalDestMn;
+    }
+
+    private Optional<MethodNode> resolveInvokeDynamicInsn(Handle handle, ExtendedClassNode calleeClass) {
         // If the calleeClass matches the handle owner, we look for the method in the calleeClass
         if (handle.getOwner().equals(calleeClass.name)) {
             // Look if the callee class has the method
-            Optional<MethodNode> optionalDestMn = calleeClass.methods.stream()
-                    .filter(mn -> mn.name.equals(handle.getName()))
-                    .findFirst();
+            Optional<MethodNode> optionalDestMn = calleeClass.findMethod(handle.getName(), handle.getDesc());
 
             if (optionalDestMn.isPresent()) {
-                return addOrCreateLink(toExploreCNMethod, calleeClass, optionalDestMn.get());
+                return optionalDestMn;
             }
         }
 
@@ -213,18 +379,25 @@ public class CallGraph {
         }
 
         // find the method in the handle class
-        Optional<MethodNode> optionalDestMn = handleClass.methods.stream()
-                .filter(mn -> mn.name.equals(handle.getName()))
-                .findFirst();
+        return handleClass.findMethod(handle.getName(), handle.getDesc());
+    }
 
-        if (optionalDestMn.isPresent()) {
-            return addOrCreateLink(toExploreCNMethod, calleeClass, optionalDestMn.get());
+    private List<Map.Entry<ExtendedClassNode, MethodNode>> parseMethodInsn(MethodInsnNode functionIns) {
+        String key = functionIns.owner + '.' + functionIns.name + functionIns.desc;
+        List<Map.Entry<ExtendedClassNode, MethodNode>> destinations = this.resolvedCalls.get(key);
+        if (destinations == null) {
+            destinations = resolveMethodInsn(functionIns);
+            this.resolvedCalls.put(key, destinations);
         }
 
-        return Optional.empty();
+        return destinations;
     }
 
-    private Optional<List<CompositeNode>> parseMethodInsn(MethodInsnNode functionIns, CompositeNode toExploreCNMethod) {
+    /**
+     * Resolves the (class, method) pairs an invoke instruction can dispatch to.
+     * Only depends on the jar, so the result is cached per (owner, name, descriptor) by the caller.
+     */
+    private List<Map.Entry<ExtendedClassNode, MethodNode>> resolveMethodInsn(MethodInsnNode functionIns) {
         // find target class:method  inside jar
         ExtendedClassNode calleeClass = jar.getClasses().get(functionIns.owner);
         if (calleeClass == null) {
@@ -232,19 +405,15 @@ public class CallGraph {
                 // We ignore SDK classes
                 logger.warn("Couldn't find (method)class: {} in jar", functionIns.owner);
             }
-            return Optional.empty();
+            return Collections.emptyList();
         }
 
         // first look if the class itself has the method (and ensure it is not an interface)
         if (!calleeClass.methods.isEmpty() && !calleeClass.isInterface()) {
-            Optional<MethodNode> optionalDestMn = calleeClass.methods
-                    .stream()
-                    .filter(mn -> mn.name.equals(functionIns.name))
-                    .findAny();
+            Optional<MethodNode> optionalDestMn = calleeClass.findMethod(functionIns.name, functionIns.desc);
 
             if (optionalDestMn.isPresent()) {
-                return addOrCreateLink(toExploreCNMethod, calleeClass, optionalDestMn.get())
-                        .map(Collections::singletonList);
+                return List.of(new AbstractMap.SimpleEntry<>(calleeClass, optionalDestMn.get()));
             }
         }
 //        // potentially cleaner solution for class and abstract class branches, but not simple, i think
@@ -264,17 +433,16 @@ public class CallGraph {
             ExtendedClassNode superClass = jar.getExtensions().get(calleeClass.name);
             if (superClass == null) {
                 // throw exception?
-                return Optional.empty();
+                return Collections.emptyList();
             }
 
             Optional<Map.Entry<ExtendedClassNode, MethodNode>> optionalDest =
-                    findMethodInSuperclass(superClass, functionIns.name);
+                    findMethodInSuperclass(superClass, functionIns.name, functionIns.desc);
 
             if (optionalDest.isPresent()) {
                 // TODO might be wrong. Could be instrumentation wants calleeClass instead of actual definition recursively?
                 // i.e. calleeClass instead of optionalDest.get().getKey()
-                return addOrCreateLink(toExploreCNMethod, optionalDest.get().getKey(), optionalDest.get().getValue())
-                        .map(Collections::singletonList);
+                return List.of(optionalDest.get());
             }
         }
 
@@ -284,36 +452,18 @@ public class CallGraph {
             List<ExtendedClassNode> implementations = jar.getRealImplementations().get(functionIns.owner);
 
             if (implementations == null || implementations.isEmpty()) {
-                return Optional.empty();
+                return Collections.emptyList();
             }
 
-            // doesn't account for multiple implementations?
-//            Optional<AbstractMap.SimpleEntry<ExtendedClassNode, MethodNode>> optionalImpl = implementations
-//                    .stream()
-//                    .flatMap(impl -> impl.methods
-//                        .stream()
-//                        .filter(mn -> mn.name.equals(functionIns.name))
-//                        .map(mn -> new AbstractMap.SimpleEntry<>(impl, mn)))
-//                    .findAny();
-//            if (optionalImpl.isPresent()) {
-//                return addOrCreateLink(toExploreCNMethod, optionalImpl.get().getKey(), optionalImpl.get().getValue());
-//            }
-
-            List<AbstractMap.SimpleEntry<ExtendedClassNode, MethodNode>> matchingImplementations = implementations
+            List<Map.Entry<ExtendedClassNode, MethodNode>> matchingImplementations = implementations
                     .stream()
-                    .flatMap(impl -> impl.methods
+                    .flatMap(impl -> impl.findMethod(functionIns.name, functionIns.desc)
                             .stream()
-                            .filter(mn -> mn.name.equals(functionIns.name))
                             .map(mn -> new AbstractMap.SimpleEntry<>(impl, mn)))
-                    .toList();
+                    .collect(Collectors.toList());
 
             if (!matchingImplementations.isEmpty()) {
-                Optional<List<CompositeNode>> compositeNodes = Optional.of(new ArrayList<>());
-                for (AbstractMap.SimpleEntry<ExtendedClassNode, MethodNode> implementation : matchingImplementations) {
-                    addOrCreateLink(toExploreCNMethod, implementation.getKey(), implementation.getValue())
-                            .ifPresent(node -> compositeNodes.get().add(node));
-                }
-                return compositeNodes;
+                return matchingImplementations;
             }
         }
 
@@ -333,7 +483,7 @@ public class CallGraph {
             // If the interfaces are default Java interfaces, they are not in the jar
             // Thus, /java/util/Map breaks the code
             if (destInterfaceClassNodes.isEmpty()) {
-                return Optional.empty();
+                return Collections.emptyList();
             }
 
             // loop through found interfaces
@@ -341,39 +491,25 @@ public class CallGraph {
                 ExtendedClassNode currentInterface = destInterfaceClassNodes.poll();
                 if (currentInterface == null) {
                     // throw exception?
-                    return Optional.empty();
+                    return Collections.emptyList();
                 }
 
                 // Spring creates from JPARepository a repository at runtime and routes accordingly using JDK proxy.
                 // https://stackoverflow.com/questions/38509882/how-are-spring-data-repositories-actually-implemented
 
                 // check if interface has matching method
-                Optional<MethodNode> methodMatch = currentInterface.methods
-                        .stream()
-                        .filter(mn -> mn.name.equals(functionIns.name))
-                        .findAny();
+                Optional<MethodNode> methodMatch = currentInterface.findMethod(functionIns.name, functionIns.desc);
 
                 if (methodMatch.isPresent()) {
-//                    jar.getRealImplementations().get(currentInterface.name)
-//                            .stream()
-//                            .findFirst()
-//                            .ifPresent(cn -> {
-//                                addOrCreateLink(toExploreCNMethod, cn, methodMatch.get()).ifPresent(callees::add);
-//                                return; // breaks
-//                            });
                     List<ExtendedClassNode> classNodes = jar.getRealImplementations().get(currentInterface.name);
                     if (classNodes != null) {
-
-                        Optional<List<CompositeNode>> compositeNodes = Optional.of(new ArrayList<>());
-                        for (ExtendedClassNode classNode : classNodes) {
-                            addOrCreateLink(toExploreCNMethod, classNode, methodMatch.get())
-                                    .ifPresent(node -> compositeNodes.get().add(node));
-                        }
-                        return compositeNodes;
+                        return classNodes
+                                .stream()
+                                .map(classNode -> new AbstractMap.SimpleEntry<>(classNode, methodMatch.get()))
+                                .collect(Collectors.toList());
                     }
 
-                    return addOrCreateLink(toExploreCNMethod, currentInterface, methodMatch.get())
-                            .map(Collections::singletonList);
+                    return List.of(new AbstractMap.SimpleEntry<>(currentInterface, methodMatch.get()));
                 }
 
                 // No match found, add interfaces of interface to explore
@@ -384,19 +520,20 @@ public class CallGraph {
             }
         }
 
-        return Optional.empty();
+        return Collections.emptyList();
     }
 
     /**
      * Recursively finds a method in the superclass of the given class node.
      * @param classNode the class node to start the search from
      * @param methodName the name of the method to find
+     * @param methodDesc the descriptor of the method to find
      * @return the method node if found, empty otherwise
      */
-    private Optional<Map.Entry<ExtendedClassNode, MethodNode> > findMethodInSuperclass(ExtendedClassNode classNode, String methodName) {
-        Optional<MethodNode> optionalMethodNode = classNode.methods.stream()
-                .filter(mn -> mn.name.equals(methodName))
-                .findFirst();
+    private Optional<Map.Entry<ExtendedClassNode, MethodNode> > findMethodInSuperclass(ExtendedClassNode classNode,
+                                                                                        String methodName,
+                                                                                        String methodDesc) {
+        Optional<MethodNode> optionalMethodNode = classNode.findMethod(methodName, methodDesc);
 
         if (optionalMethodNode.isPresent()) {
             return Optional.of(new AbstractMap.SimpleEntry<>(classNode, optionalMethodNode.get()));
@@ -405,7 +542,7 @@ public class CallGraph {
         if (classNode.superName != null) {
             ExtendedClassNode superNode = jar.getExtensions().get(classNode.name);
             if (superNode != null) {
-                return findMethodInSuperclass(superNode, methodName);
+                return findMethodInSuperclass(superNode, methodName, methodDesc);
             }
         }
 
@@ -428,175 +565,131 @@ public class CallGraph {
 
     /**
      * Creates a node with link to parent node if it does not exist yet.
-     * Otherwise, if it does exists, add bidirectional link between parent node and cn.
-     * @param parentNode class where the function is called
+     * Otherwise, if it does exists, add link between parent node and the node.
+     * @param parentNode node where the function is called
      * @param calleeClass class where the function is defined
      * @param destMn method node of the function
-     * @return Optional.empty() if node already exists, Optional.of(cn) if node was created
+     * @return OptionalInt.empty() if node already exists, OptionalInt.of(node) if node was created
      */
-    private Optional<CompositeNode> addOrCreateLink(CompositeNode parentNode, ExtendedClassNode calleeClass, MethodNode destMn) {
+    private OptionalInt addOrCreateLink(int parentNode, ExtendedClassNode calleeClass, MethodNode destMn) {
         // Fetch method node from map
-        CompositeNode cn = methodProcedureMap.get(destMn);
+        Integer node = methodProcedureMap.get(destMn);
 
-        if (cn == null || !cn.getOwner().name.equals(calleeClass.name)) {
+        if (node == null || !nodeOwners.get(node).name.equals(calleeClass.name)) {
             // never seen this callee, create with link
-            cn = CompositeNode.builder().owner(calleeClass).method(destMn).build();
-            parentNode.addCallee(cn);
-            cn.addCaller(parentNode);
+            int cn = createNode(calleeClass, destMn);
+            addEdge(parentNode, cn);
             methodProcedureMap.put(destMn, cn);
-            return Optional.of(cn);
+            return OptionalInt.of(cn);
         }
 
         // this node already exists, only add link
-        parentNode.addCallee(cn);
-        cn.addCaller(parentNode);
-        return Optional.empty();
+        addEdge(parentNode, node);
+        return OptionalInt.empty();
     }
 
-    public void calculateDistance(List<CommandLineTarget> targets) {
-        // TODO for now only one target
-        if (targets.size() != 1) {
-            logger.warn("Multiple targets currently not implemented. First target will be used.");
-        }
-        CommandLineTarget commandLineTarget = targets.get(0);
-
-        // perform BFS to find target within graph
-        CompositeNode target = findTarget(commandLineTarget).orElseGet(() -> {
-            logger.error("Could not find specified target.");
+    /**
+     * Calculates the distance of every node to the targets.
+     * Each target gets its own distance pass, run in parallel when multiple workers are used, and the
+     * passes are combined per node.
+     */
+    public void calculateDistance(List<CommandLineTarget> targets, DistanceMerge merge) {
+        // find targets within graph, missing ones are skipped
+        List<int[]> targetNodes = targets.stream()
+                .map(this::findTarget)
+                .filter(nodes -> nodes.length > 0)
+                .toList();
+
+        if (targetNodes.isEmpty()) {
+            logger.error("Could not find any of the specified targets.");
             System.exit(1);
-            return null;
-        });
+        }
 
         // calculate distances
-        Queue<CompositeNode> nodeQueue = new LinkedList<>(Collections.singletonList(target));
-        target.setDistance(0);
-
-        while (!nodeQueue.isEmpty()) {
-            CompositeNode srcNode = nodeQueue.poll();
-            Integer currentDistance = srcNode.getDistance();
-
-//            System.out.println(currentDistance);
-//            System.out.println(srcNode.print() + "\n");
-
-            // add children to explore
-            srcNode.getCallers()
-                    .forEach(dstNode -> {
-                        // TODO maybe make lambda's less weight? what is optimal weight calculation?
-                        if (dstNode.getDistance() == null) {
-                            dstNode.setDistance(currentDistance + 1);
-                        } else if (dstNode.getDistance() > currentDistance + 1) {
-                            dstNode.setDistance(currentDistance + 1);
-                        }
-
-//                        System.out.println("adding " + dstNode.print());
-                        nodeQueue.add(dstNode);
-                    });
+        DistanceEngine engine = new DistanceEngine(graph);
+        ForkJoinPool pool = this.threads > 1 && targetNodes.size() > 1 ? new ForkJoinPool(this.threads) : null;
+        try {
+            List<int[]> distances = pool == null
+                    ? targetNodes.stream().map(engine::compute).toList()
+                    : pool.submit(() -> targetNodes.parallelStream().map(engine::compute).toList()).get();
+
+            if (targetNodes.size() > 1) {
+                logger.info("Merging distances of {} targets ({}).", targetNodes.size(), merge);
+            }
+            graph.setDistances(merge.merge(distances));
+        } catch (IllegalStateException e) {
+            logger.error("Could not calculate distances!");
+            logger.error(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while calculating distances.");
+            System.exit(1);
+        } catch (ExecutionException e) {
+            logger.error("Could not calculate distances!");
+            logger.error(e.getCause().getMessage());
+            System.exit(1);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
         }
     }
 
-    private Optional<CompositeNode> findTarget(CommandLineTarget commandLineTarget) {
-        Queue<CompositeNode> nodeQueue = new LinkedList<>(Collections.singletonList(this.root));
-        Set<CompositeNode> alreadyExplored = new HashSet<>();
-        CompositeNode target = null;
-
-        while (!nodeQueue.isEmpty()) {
-            CompositeNode compositeNode = nodeQueue.poll();
-
-            // add children to explore
-            compositeNode.getCallees()
-                    .forEach(cn -> {
-                        if (!alreadyExplored.contains(cn)) {
-                            nodeQueue.add(cn);
-                        }
-                    });
-
-            if (!compositeNode.isRoot() && compositeNode.getMethod().name.equals(commandLineTarget.getMethodName())
-                    && compositeNode.getOwner().name.equals(commandLineTarget.getInternalClassName()) ) {
-                target = compositeNode;
-                break;
-            }
-
-            alreadyExplored.addAll(compositeNode.getCallees());
+    /**
+     * Looks up the nodes of a target, logs what could have been meant if it isn't part of the graph.
+     * @return node ids of the target, empty if not found
+     */
+    private int[] findTarget(CommandLineTarget commandLineTarget) {
+        int[] nodes = targetIndex.lookup(commandLineTarget);
+        if (nodes.length > 0) {
+            return nodes;
         }
 
-        return Optional.ofNullable(target);
-    }
-
-    public void printDotGraph(String pathname) {
-        Queue<CompositeNode> toPrintNodes = new LinkedList<>(Collections.singletonList(this.root));
-        Set<CompositeNode> alreadyExplored = new HashSet<>();
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("digraph G {\n");
-        while (!toPrintNodes.isEmpty()) {
-            CompositeNode compositeNode = toPrintNodes.poll();
-
-            // add children to explore
-            compositeNode.getCallees()
-                    .forEach(cn -> {
-                        if (!alreadyExplored.contains(cn)) {
-                            toPrintNodes.add(cn);
-                        }
-                    });
-
-            //    "procSrc" -> "procDst";
-            compositeNode.getCallees().forEach(cn ->
-                    sb.append("    ")
-                            .append('"').append(compositeNode.printAbbrev()).append('"')
-                            .append(" -> ")
-                            .append('"').append(cn.printAbbrev()).append('"')
-                            .append(";\n"));
-
-            alreadyExplored.addAll(compositeNode.getCallees());
-        }
-        sb.append("}");
-
-        if (pathname != null) {
-            try (FileWriter f = new FileWriter(pathname)) {
-                f.write(sb.toString());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        String target = commandLineTarget.getClassName() + ":" + commandLineTarget.getMethodName()
+                + (commandLineTarget.getDescriptor() == null ? "" : ":" + commandLineTarget.getDescriptor());
+        ExtendedClassNode targetClass = jar.getClasses().get(commandLineTarget.getInternalClassName());
+        if (targetClass != null && targetClass.findMethod(commandLineTarget.getMethodName(), null).isPresent()) {
+            logger.warn("Target {} is not reachable from the entry points, skipping.", target);
         } else {
-            System.out.println(sb);
+            logger.warn("Could not find specified target {}, skipping.", target);
         }
-    }
-
-    public String createJson() {
-        Queue<CompositeNode> toPrintNodes = new LinkedList<>(this.root.getCallees());
-        Set<CompositeNode> alreadyExplored = new HashSet<>();
-        JsonNodes jsonNodes = new JsonNodes();
-
-        CompositeNode compositeNode;
-        while (!toPrintNodes.isEmpty()) {
-            compositeNode = toPrintNodes.poll();
-
-            // add children to explore
-            compositeNode.getCallees()
-                    .forEach(cn -> {
-                        if (!alreadyExplored.contains(cn)) {
-                            toPrintNodes.add(cn);
-                        }
-                    });
 
-            JsonNode currentJsonNode = jsonNodes.findOrCreateNode(compositeNode);
-            JsonMethod currentJsonMethod = currentJsonNode.findOrCreateMethod(compositeNode);
-            currentJsonMethod.addCallees(compositeNode);
-
-            alreadyExplored.addAll(compositeNode.getCallees());
+        List<String> suggestions = targetIndex.suggest(commandLineTarget);
+        if (!suggestions.isEmpty()) {
+            logger.warn("Did you mean: {}", String.join(", ", suggestions));
         }
+        return nodes;
+    }
 
-        Gson gson = new Gson();
-        return gson.toJson(jsonNodes);
+    /**
+     * @param pathname file to write to, standard out if null
+     * @param filters see {@link DotExporter}
+     */
+    public void printDotGraph(String pathname, List<String> filters) {
+        try {
+            new DotExporter(graph, filters).export(pathname);
+        } catch (IOException e) {
+            logger.error("Could not save dot graph.");
+            logger.error(e.getMessage());
+        }
     }
 
     public void saveJson(String path) {
-        try (BufferedWriter out = new BufferedWriter(new FileWriter(path))) {
-            out.write(this.createJson());
+        try {
+            new JsonExporter(graph).export(path);
         } catch (IOException e) {
             logger.error("Could not save json.");
             logger.error(e.getMessage());
         }
     }
-}
 
+    public void saveDistanceTable(String path) {
+        try {
+            new DistanceTableExporter(graph).export(path);
+        } catch (IOException e) {
+            logger.error("Could not save distance table.");
+            logger.error(e.getMessage());
+        }
+    }
+}
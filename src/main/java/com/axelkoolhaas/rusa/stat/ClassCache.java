@@ -0,0 +1,415 @@
+package com.axelkoolhaas.rusa.stat;
+
+import com.axelkoolhaas.rusa.model.ExtendedClassNode;
+import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+
+/**
+ * Persistent cache of parsed class metadata, so unchanged JAR entries don't have to be parsed again.
+ * Entries are keyed by JAR entry name, CRC and size; a nested JAR is one entry holding all of its classes.
+ * Only what the call graph needs is kept: hierarchy, annotations, method signatures and call sites.
+ */
+public class ClassCache {
+    // Constants
+    private static final int MAGIC = 0x52534343; // RSCC
+    private static final int VERSION = 1;
+    // Call site kinds
+    private static final byte METHOD_INSN = 0;
+    private static final byte INVOKE_DYNAMIC_INSN = 1;
+    // Bootstrap method argument kinds
+    private static final byte HANDLE_ARG = 0;
+    private static final byte TYPE_ARG = 1;
+    private static final byte STRING_ARG = 2;
+    private static final byte INTEGER_ARG = 3;
+    private static final byte LONG_ARG = 4;
+    private static final byte FLOAT_ARG = 5;
+    private static final byte DOUBLE_ARG = 6;
+
+    // Fields
+    private static final Logger logger = LogManager.getLogger(ClassCache.class);
+    private final String path;
+    // entries read from disk
+    private final Map<String, byte[]> storedEntries;
+    // entries of the current JAR, written back on save
+    private final Map<String, byte[]> usedEntries;
+    @Getter
+    private int hits;
+    @Getter
+    private int misses;
+
+    // Constructor
+    private ClassCache(String path, Map<String, byte[]> storedEntries) {
+        this.path = path;
+        this.storedEntries = storedEntries;
+        this.usedEntries = new ConcurrentHashMap<>();
+    }
+
+    // Methods
+    /**
+     * Opens the cache at the given path, an unreadable or outdated cache is treated as empty.
+     */
+    public static ClassCache open(String path) {
+        Map<String, byte[]> storedEntries = new HashMap<>();
+        if (!Files.isRegularFile(Paths.get(path))) {
+            logger.info("No class cache at {}, it will be created.", path);
+            return new ClassCache(path, storedEntries);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warn("Class cache {} has an unknown format, it will be rebuilt.", path);
+                return new ClassCache(path, storedEntries);
+            }
+
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String key = in.readUTF();
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                storedEntries.put(key, record);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read class cache, it will be rebuilt: {}", e.getMessage());
+            storedEntries.clear();
+        }
+
+        return new ClassCache(path, storedEntries);
+    }
+
+    /**
+     * @return the cache key of a JAR entry, or null if its CRC is unknown
+     */
+    public static String key(ZipEntry entry) {
+        if (entry.getCrc() == -1 || entry.getSize() == -1) {
+            return null;
+        }
+        return entry.getName() + '@' + Long.toHexString(entry.getCrc()) + ':' + entry.getSize();
+    }
+
+    /**
+     * Looks up an entry and marks it as used, so it survives the next save.
+     */
+    public Optional<byte[]> lookup(String key) {
+        byte[] record = key == null ? null : this.storedEntries.get(key);
+        if (record == null) {
+            this.misses++;
+            return Optional.empty();
+        }
+
+        this.hits++;
+        this.usedEntries.put(key, record);
+        return Optional.of(record);
+    }
+
+    public void store(String key, List<ExtendedClassNode> classNodes) {
+        if (key == null) {
+            return;
+        }
+
+        try {
+            this.usedEntries.put(key, encode(classNodes));
+        } catch (IOException e) {
+            logger.warn("Could not cache {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes all entries used by the current JAR, stale entries are dropped.
+     */
+    public void save() {
+        Path target = Paths.get(this.path);
+        Path tempFile = Paths.get(this.path + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.usedEntries.size());
+            for (Map.Entry<String, byte[]> entry : this.usedEntries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        } catch (IOException e) {
+            logger.error("Could not save class cache.");
+            logger.error(e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Could not replace class cache.");
+            logger.error(e.getMessage());
+        }
+    }
+
+    // Serialization
+    private static byte[] encode(List<ExtendedClassNode> classNodes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RecordWriter out = new RecordWriter(bytes);
+
+        out.writeInt(classNodes.size());
+        for (ExtendedClassNode cn : classNodes) {
+            out.writeInt(cn.access);
+            out.writeString(cn.name);
+            out.writeString(cn.superName);
+            out.writeStrings(cn.interfaces);
+            out.writeAnnotations(cn.visibleAnnotations);
+
+            out.writeInt(cn.methods.size());
+            for (MethodNode mn : cn.methods) {
+                out.writeInt(mn.access);
+                out.writeString(mn.name);
+                out.writeString(mn.desc);
+                out.writeAnnotations(mn.visibleAnnotations);
+                writeCallSites(out, mn.instructions);
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeCallSites(RecordWriter out, InsnList instructions) throws IOException {
+        List<AbstractInsnNode> callSites = new ArrayList<>();
+        for (AbstractInsnNode insnNode : instructions) {
+            if (insnNode.getType() == AbstractInsnNode.METHOD_INSN
+                    || insnNode.getType() == AbstractInsnNode.INVOKE_DYNAMIC_INSN) {
+                callSites.add(insnNode);
+            }
+        }
+
+        out.writeInt(callSites.size());
+        for (AbstractInsnNode insnNode : callSites) {
+            if (insnNode instanceof MethodInsnNode methodIns) {
+                out.writeByte(METHOD_INSN);
+                out.writeInt(methodIns.getOpcode());
+                out.writeString(methodIns.owner);
+                out.writeString(methodIns.name);
+                out.writeString(methodIns.desc);
+                out.writeBoolean(methodIns.itf);
+            } else {
+                InvokeDynamicInsnNode dynamicIns = (InvokeDynamicInsnNode) insnNode;
+                out.writeByte(INVOKE_DYNAMIC_INSN);
+                out.writeString(dynamicIns.name);
+                out.writeString(dynamicIns.desc);
+                out.writeHandle(dynamicIns.bsm);
+                out.writeInt(dynamicIns.bsmArgs.length);
+                for (Object bsmArg : dynamicIns.bsmArgs) {
+                    out.writeConstant(bsmArg);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the class nodes of a cache entry. Method bodies only contain their call sites.
+     */
+    public static List<ExtendedClassNode> decode(byte[] record) {
+        RecordReader in = new RecordReader(new ByteArrayInputStream(record));
+
+        try {
+            int classCount = in.readInt();
+            List<ExtendedClassNode> classNodes = new ArrayList<>(classCount);
+            for (int i = 0; i < classCount; i++) {
+                ExtendedClassNode cn = new ExtendedClassNode(Opcodes.ASM9);
+                cn.access = in.readInt();
+                cn.name = in.readString();
+                cn.superName = in.readString();
+                cn.interfaces = in.readStrings();
+                cn.visibleAnnotations = in.readAnnotations();
+
+                int methodCount = in.readInt();
+                for (int j = 0; j < methodCount; j++) {
+                    MethodNode mn = new MethodNode(Opcodes.ASM9, in.readInt(), in.readString(), in.readString(),
+                            null, null);
+                    mn.visibleAnnotations = in.readAnnotations();
+                    readCallSites(in, mn.instructions);
+                    cn.methods.add(mn);
+                }
+                classNodes.add(cn);
+            }
+            return classNodes;
+        } catch (IOException e) {
+            // records are in memory, this means the cache is corrupt
+            throw new UncheckedIOException("Corrupt class cache record", e);
+        }
+    }
+
+    private static void readCallSites(RecordReader in, InsnList instructions) throws IOException {
+        int callSiteCount = in.readInt();
+        for (int i = 0; i < callSiteCount; i++) {
+            if (in.readByte() == METHOD_INSN) {
+                instructions.add(new MethodInsnNode(in.readInt(), in.readString(), in.readString(),
+                        in.readString(), in.readBoolean()));
+            } else {
+                String name = in.readString();
+                String desc = in.readString();
+                Handle bsm = in.readHandle();
+                Object[] bsmArgs = new Object[in.readInt()];
+                for (int j = 0; j < bsmArgs.length; j++) {
+                    bsmArgs[j] = in.readConstant();
+                }
+                instructions.add(new InvokeDynamicInsnNode(name, desc, bsm, bsmArgs));
+            }
+        }
+    }
+
+    /**
+     * Record output with a string pool per record, class and method names repeat a lot.
+     */
+    private static class RecordWriter extends DataOutputStream {
+        private final Map<String, Integer> pool = new HashMap<>();
+
+        private RecordWriter(OutputStream out) {
+            super(out);
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+
+            Integer index = this.pool.get(value);
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+
+            this.pool.put(value, this.pool.size());
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(-2 - utf8.length);
+            write(utf8);
+        }
+
+        private void writeStrings(List<String> values) throws IOException {
+            writeInt(values == null ? 0 : values.size());
+            if (values != null) {
+                for (String value : values) {
+                    writeString(value);
+                }
+            }
+        }
+
+        private void writeAnnotations(List<AnnotationNode> annotations) throws IOException {
+            writeInt(annotations == null ? -1 : annotations.size());
+            if (annotations != null) {
+                for (AnnotationNode annotation : annotations) {
+                    writeString(annotation.desc);
+                }
+            }
+        }
+
+        private void writeHandle(Handle handle) throws IOException {
+            writeInt(handle.getTag());
+            writeString(handle.getOwner());
+            writeString(handle.getName());
+            writeString(handle.getDesc());
+            writeBoolean(handle.isInterface());
+        }
+
+        private void writeConstant(Object constant) throws IOException {
+            if (constant instanceof Handle handle) {
+                writeByte(HANDLE_ARG);
+                writeHandle(handle);
+            } else if (constant instanceof Type type) {
+                writeByte(TYPE_ARG);
+                writeString(type.getDescriptor());
+            } else if (constant instanceof Integer value) {
+                writeByte(INTEGER_ARG);
+                writeInt(value);
+            } else if (constant instanceof Long value) {
+                writeByte(LONG_ARG);
+                writeLong(value);
+            } else if (constant instanceof Float value) {
+                writeByte(FLOAT_ARG);
+                writeFloat(value);
+            } else if (constant instanceof Double value) {
+                writeByte(DOUBLE_ARG);
+                writeDouble(value);
+            } else {
+                // strings, and constant dynamics which the call graph doesn't resolve
+                writeByte(STRING_ARG);
+                writeString(String.valueOf(constant));
+            }
+        }
+    }
+
+    private static class RecordReader extends DataInputStream {
+        private final List<String> pool = new ArrayList<>();
+
+        private RecordReader(InputStream in) {
+            super(in);
+        }
+
+        private String readString() throws IOException {
+            int index = readInt();
+            if (index == -1) {
+                return null;
+            }
+            if (index >= 0) {
+                return this.pool.get(index);
+            }
+
+            byte[] utf8 = new byte[-2 - index];
+            readFully(utf8);
+            String value = new String(utf8, StandardCharsets.UTF_8);
+            this.pool.add(value);
+            return value;
+        }
+
+        private List<String> readStrings() throws IOException {
+            int count = readInt();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        private List<AnnotationNode> readAnnotations() throws IOException {
+            int count = readInt();
+            if (count < 0) {
+                return null;
+            }
+
+            List<AnnotationNode> annotations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                annotations.add(new AnnotationNode(readString()));
+            }
+            return annotations;
+        }
+
+        private Handle readHandle() throws IOException {
+            return new Handle(readInt(), readString(), readString(), readString(), readBoolean());
+        }
+
+        private Object readConstant() throws IOException {
+            return switch (readByte()) {
+                case HANDLE_ARG -> readHandle();
+                case TYPE_ARG -> Type.getType(readString());
+                case INTEGER_ARG -> readInt();
+                case LONG_ARG -> readLong();
+                case FLOAT_ARG -> readFloat();
+                case DOUBLE_ARG -> readDouble();
+                default -> readString();
+            };
+        }
+    }
+}
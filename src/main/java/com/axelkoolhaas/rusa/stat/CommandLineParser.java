@@ -11,6 +11,12 @@ public class CommandLineParser {
     // Constants
     private static final Set<String> FILE_FLAG = Set.of("-f", "--file");
     private static final Set<String> TARGET_FLAG = Set.of("-t", "--target");
+    private static final Set<String> THREADS_FLAG = Set.of("-j", "--threads");
+    private static final Set<String> LAZY_FLAG = Set.of("-l", "--lazy");
+    private static final Set<String> CACHE_FLAG = Set.of("-c", "--cache");
+    private static final Set<String> MERGE_FLAG = Set.of("-m", "--merge");
+    private static final Set<String> DOT_FLAG = Set.of("-d", "--dot");
+    private static final Set<String> DOT_FILTER_FLAG = Set.of("--dot-filter");
 
     // Fields
     private final Logger logger = LogManager.getLogger(CommandLineParser.class);
@@ -18,6 +24,17 @@ public class CommandLineParser {
     @Getter
     private String jarPath;
     private final List<CommandLineTarget> targets;
+    @Getter
+    private int threads;
+    @Getter
+    private boolean lazy;
+    @Getter
+    private String cachePath;
+    @Getter
+    private DistanceMerge merge;
+    @Getter
+    private String dotPath;
+    private final List<String> dotFilters;
 
     // Getters and setters
     private void setJarPath(String jarPath) {
@@ -32,7 +49,7 @@ public class CommandLineParser {
 
         // Validate the input
 //        if (parts.length != 3) {
-        if (parts.length != 2) {
+        if (parts.length != 2 && parts.length != 3) {
             logger.error("Not enough : arguments for " + TARGET_FLAG + " target flag use.");
             System.exit(1);
         }
@@ -43,18 +60,60 @@ public class CommandLineParser {
             }
         }
 //        targets.add(new CommandLineTarget(parts[0], parts[1], parts[2]));
-        targets.add(new CommandLineTarget(parts[0], parts[0].replace('.','/'), parts[1]));
+        if (parts.length == 3 && !parts[2].startsWith("(")) {
+            logger.error("Invalid method descriptor for {} flag use: {}", TARGET_FLAG, parts[2]);
+            System.exit(1);
+        }
+        targets.add(new CommandLineTarget(parts[0], parts[0].replace('.','/'), parts[1],
+                parts.length == 3 ? parts[2] : null));
+    }
+
+    private void setThreads(String threads) {
+        try {
+            this.threads = Integer.parseInt(threads);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid number for {} flag use: {}", THREADS_FLAG, threads);
+            System.exit(1);
+        }
+
+        if (this.threads < 1) {
+            logger.error("At least one thread is required for {} flag use.", THREADS_FLAG);
+            System.exit(1);
+        }
+    }
+
+    private void setMerge(String merge) {
+        this.merge = DistanceMerge.fromName(merge).orElseGet(() -> {
+            logger.error("Unknown merge method for {} flag use: {}", MERGE_FLAG, merge);
+            System.exit(1);
+            return null;
+        });
+    }
+
+    private void addDotFilter(String filter) {
+        if (!DotExporter.isValidFilter(filter)) {
+            logger.error("Invalid filter for {} flag use: {}", DOT_FILTER_FLAG, filter);
+            System.exit(1);
+        }
+        dotFilters.add(filter);
     }
 
     public List<CommandLineTarget> getTargets() {
         return Collections.unmodifiableList(targets);
     }
 
+    public List<String> getDotFilters() {
+        return Collections.unmodifiableList(dotFilters);
+    }
+
     // Constructor
     public CommandLineParser(String selfJarPath) {
         this.selfJarPath = selfJarPath;
         this.jarPath =  "";
         this.targets = new ArrayList<>();
+        this.threads = 1;
+        this.merge = DistanceMerge.HARMONIC;
+        this.dotFilters = new ArrayList<>();
     }
 
     // Methods
@@ -64,8 +123,17 @@ public class CommandLineParser {
             System.out.printf("%s usage:\n", selfJarPath);
             System.out.printf("""
                     Statically:\trun and supply JAR file and target method arguments
-                    e.g. java --jar %s %s app.jar %s fully.qualified.class.name:targetMethod
-                    """, selfJarPath, FILE_FLAG, TARGET_FLAG);
+                    e.g. java --jar %s %s app.jar %s fully.qualified.class.name:targetMethod[:descriptor]
+                    Options:
+                    \t%s <n>\tnumber of worker threads used for analysis (default 1)
+                    \t%s\t\tonly parse method bodies reachable from the entry points
+                    \t%s <file>\treuse parsed classes of unchanged JAR entries across runs
+                    \t%s <min|harmonic>\tcombine distances of multiple targets (default harmonic)
+                    \t%s <file>\twrite the call graph in DOT format
+                    \t%s <filter>\tonly write part of the DOT graph, repeatable:
+                    \t\t\tdistance | target:<hops> | package:<name>
+                    """, selfJarPath, FILE_FLAG, TARGET_FLAG, THREADS_FLAG, LAZY_FLAG, CACHE_FLAG, MERGE_FLAG,
+                    DOT_FLAG, DOT_FILTER_FLAG);
 //                    e.g. java --jar %s %s app.jar %s fully.qualified.class.name:targetMethod:lineNumber
             System.out.printf("Dynamically:\t" +
                     "attach as agent when running JAR: java -javaagent:%s app.jar\n", selfJarPath);
@@ -88,6 +156,43 @@ public class CommandLineParser {
                 } else {
                     logger.error("Missing argument for {} flag use.", TARGET_FLAG);
                 }
+            } else if (THREADS_FLAG.contains(args[i])) {
+                // Parse the -j argument
+                if (i + 1 < args.length) {
+                    setThreads(args[i + 1]);
+                } else {
+                    logger.error("Missing argument for {} flag use.", THREADS_FLAG);
+                }
+            } else if (LAZY_FLAG.contains(args[i])) {
+                this.lazy = true;
+            } else if (CACHE_FLAG.contains(args[i])) {
+                // Parse the -c argument
+                if (i + 1 < args.length) {
+                    this.cachePath = args[i + 1];
+                } else {
+                    logger.error("Missing argument for {} flag use.", CACHE_FLAG);
+                }
+            } else if (MERGE_FLAG.contains(args[i])) {
+                // Parse the -m argument
+                if (i + 1 < args.length) {
+                    setMerge(args[i + 1]);
+                } else {
+                    logger.error("Missing argument for {} flag use.", MERGE_FLAG);
+                }
+            } else if (DOT_FLAG.contains(args[i])) {
+                // Parse the -d argument
+                if (i + 1 < args.length) {
+                    this.dotPath = args[i + 1];
+                } else {
+                    logger.error("Missing argument for {} flag use.", DOT_FLAG);
+                }
+            } else if (DOT_FILTER_FLAG.contains(args[i])) {
+                // Parse the --dot-filter argument
+                if (i + 1 < args.length) {
+                    addDotFilter(args[i + 1]);
+                } else {
+                    logger.error("Missing argument for {} flag use.", DOT_FILTER_FLAG);
+                }
             }
         }
 
@@ -0,0 +1,81 @@
+package com.axelkoolhaas.rusa.stat;
+
+import com.axelkoolhaas.rusa.model.CompactGraph;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+
+import static com.axelkoolhaas.rusa.model.CompactGraph.UNREACHABLE;
+
+/**
+ * Shortest path distances towards a target over the reverse call graph.
+ * A target can consist of several nodes (e.g. overloads), the distance is then the one to the closest of them.
+ * All calls have weight 1, so a breadth first search from the target settles every node the first time it is
+ * reached; a node is only enqueued when its distance improves, which makes a pass O(V + E).
+ */
+public class DistanceEngine {
+    // Fields
+    private static final Logger logger = LogManager.getLogger(DistanceEngine.class);
+    private final CompactGraph graph;
+
+    // Constructor
+    public DistanceEngine(CompactGraph graph) {
+        this.graph = graph;
+    }
+
+    // Methods
+    /**
+     * Calculates the distance of every node to the target, i.e. the minimal number of calls from the node to
+     * the target.
+     * @param targets node ids of the target
+     * @return distance per node id, {@link CompactGraph#UNREACHABLE} if the node can't reach the target
+     * @throws IllegalStateException if the graph is inconsistent, instead of looping forever
+     */
+    public int[] compute(int... targets) {
+        int nodeCount = this.graph.size();
+
+        int[] distances = new int[nodeCount];
+        Arrays.fill(distances, UNREACHABLE);
+
+        // every node is pushed at most once, so the queue is a plain array
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+
+        for (int target : targets) {
+            if (target < 0 || target >= nodeCount) {
+                throw new IllegalArgumentException("Target node " + target + " is not part of the graph.");
+            }
+            if (distances[target] != 0) {
+                distances[target] = 0;
+                queue[tail++] = target;
+            }
+        }
+
+        while (head < tail) {
+            int node = queue[head++];
+            int nextDistance = distances[node] + 1;
+
+            for (int i = 0; i < this.graph.getCallerCount(node); i++) {
+                int caller = this.graph.getCaller(node, i);
+
+                // TODO maybe make lambda's less weight? what is optimal weight calculation?
+                if (distances[caller] != UNREACHABLE && distances[caller] <= nextDistance) {
+                    continue;
+                }
+                if (tail == nodeCount) {
+                    throw new IllegalStateException("Distance calculation enqueued more nodes than the graph has ("
+                            + nodeCount + "), the call graph is inconsistent.");
+                }
+
+                distances[caller] = nextDistance;
+                queue[tail++] = caller;
+            }
+        }
+
+        logger.debug("Distance pass from {} reached {} of {} nodes.",
+                targets.length == 0 ? "nothing" : this.graph.print(targets[0]), tail, nodeCount);
+        return distances;
+    }
+}
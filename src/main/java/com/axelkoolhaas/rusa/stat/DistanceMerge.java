@@ -0,0 +1,75 @@
+package com.axelkoolhaas.rusa.stat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.axelkoolhaas.rusa.model.CompactGraph.UNREACHABLE;
+
+/**
+ * Combines the distances towards several targets into one distance per node.
+ * Targets a node can't reach are ignored, a node that reaches none of them stays unreachable.
+ */
+public enum DistanceMerge {
+    /**
+     * Distance to the closest target.
+     */
+    MIN {
+        @Override
+        double merge(List<int[]> distances, int node) {
+            int min = UNREACHABLE;
+            for (int[] targetDistances : distances) {
+                int distance = targetDistances[node];
+                if (distance != UNREACHABLE && (min == UNREACHABLE || distance < min)) {
+                    min = distance;
+                }
+            }
+            return min;
+        }
+    },
+    /**
+     * AFLGo's harmonic distance {@code (sum of 1/d)^-1} over the reachable targets.
+     * Close targets dominate, but nodes that reach several targets get a smaller distance than nodes that reach only
+     * one, which can drop below 1. Only the targets themselves have distance 0.
+     */
+    HARMONIC {
+        @Override
+        double merge(List<int[]> distances, int node) {
+            double inverseSum = 0;
+            for (int[] targetDistances : distances) {
+                int distance = targetDistances[node];
+                if (distance == UNREACHABLE) {
+                    continue;
+                }
+                if (distance == 0) {
+                    // the node is a target itself
+                    return 0;
+                }
+                inverseSum += 1.0 / distance;
+            }
+            return inverseSum == 0 ? UNREACHABLE : 1 / inverseSum;
+        }
+    };
+
+    abstract double merge(List<int[]> distances, int node);
+
+    /**
+     * @param distances distance per node id for each target, all of the same length
+     * @return merged distance per node id
+     */
+    public double[] merge(List<int[]> distances) {
+        if (distances.size() == 1) {
+            return Arrays.stream(distances.get(0)).asDoubleStream().toArray();
+        }
+
+        double[] merged = new double[distances.get(0).length];
+        Arrays.setAll(merged, node -> merge(distances, node));
+        return merged;
+    }
+
+    public static Optional<DistanceMerge> fromName(String name) {
+        return Arrays.stream(values())
+                .filter(merge -> merge.name().equalsIgnoreCase(name))
+                .findFirst();
+    }
+}
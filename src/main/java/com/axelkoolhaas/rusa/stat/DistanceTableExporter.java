@@ -0,0 +1,39 @@
+package com.axelkoolhaas.rusa.stat;
+
+import com.axelkoolhaas.rusa.model.CompactGraph;
+import com.axelkoolhaas.rusa.model.IntList;
+import com.axelkoolhaas.rusa.model.table.DistanceTableWriter;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Writes the methods with a distance as a binary {@link com.axelkoolhaas.rusa.model.table.DistanceTable} for the
+ * agent. Holds the same distances as the JSON distance tree, but leaves out the callees.
+ */
+public class DistanceTableExporter {
+    // Fields
+    private final CompactGraph graph;
+
+    // Constructor
+    public DistanceTableExporter(CompactGraph graph) {
+        this.graph = graph;
+    }
+
+    // Methods
+    public void export(String path) throws IOException {
+        DistanceTableWriter writer = new DistanceTableWriter();
+
+        for (Map<String, IntList> methods : JsonExporter.groupNodes(graph).values()) {
+            for (IntList nodes : methods.values()) {
+                int first = nodes.get(0);
+                if (graph.hasDistance(first)) {
+                    writer.add(graph.getInternalPath(first), graph.getMethod(first).name, graph.getDistance(first));
+                }
+            }
+        }
+
+        writer.write(Paths.get(path));
+    }
+}
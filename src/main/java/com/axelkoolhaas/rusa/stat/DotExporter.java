@@ -0,0 +1,194 @@
+package com.axelkoolhaas.rusa.stat;
+
+import com.axelkoolhaas.rusa.model.CompactGraph;
+import com.axelkoolhaas.rusa.model.IntList;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.axelkoolhaas.rusa.model.CompactGraph.ROOT;
+
+/**
+ * Writes the call graph in Graphviz DOT format, edge by edge in breadth first order from the root.
+ * Nodes with a distance are labeled with it. Filters restrict the graph to the interesting part:
+ * <ul>
+ *     <li>{@code distance}: only nodes that can reach a target</li>
+ *     <li>{@code target:k}: only nodes at most k calls away from a target, in either direction</li>
+ *     <li>{@code package:name}: only nodes of classes in the package or its subpackages, e.g.
+ *     {@code package:com.example} matches {@code com.example.web} but not {@code com.examples}</li>
+ * </ul>
+ * Multiple filters must all match. {@code package} filters always keep the root, {@code distance} drops it when no
+ * target is reachable and {@code target:k} when it is more than k calls away from a target.
+ * An edge is written when both its nodes are kept.
+ */
+public class DotExporter {
+    // Constants
+    private static final String DISTANCE_FILTER = "distance";
+    private static final String TARGET_FILTER = "target:";
+    private static final String PACKAGE_FILTER = "package:";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Fields
+    private final CompactGraph graph;
+    private final boolean[] kept;
+
+    // Constructor
+    public DotExporter(CompactGraph graph, List<String> filters) {
+        this.graph = graph;
+        this.kept = new boolean[graph.size()];
+
+        Arrays.fill(this.kept, true);
+        for (String filter : filters) {
+            applyFilter(filter);
+        }
+    }
+
+    // Methods
+    public static boolean isValidFilter(String filter) {
+        if (filter.equals(DISTANCE_FILTER)) {
+            return true;
+        }
+        if (filter.startsWith(TARGET_FILTER)) {
+            try {
+                return Integer.parseInt(filter.substring(TARGET_FILTER.length())) >= 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return filter.startsWith(PACKAGE_FILTER) && filter.length() > PACKAGE_FILTER.length();
+    }
+
+    /**
+     * @param pathname file to write to, standard out if null
+     */
+    public void export(String pathname) throws IOException {
+        if (pathname == null) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            write(out);
+            out.flush();
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(pathname), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            write(out);
+        }
+    }
+
+    private void write(Writer out) throws IOException {
+        boolean[] alreadyExplored = new boolean[graph.size()];
+        IntList toPrintNodes = new IntList();
+        toPrintNodes.add(ROOT);
+        alreadyExplored[ROOT] = true;
+
+        out.write("digraph G {\n");
+        // the queue is only appended to, head is the next node to print
+        for (int head = 0; head < toPrintNodes.size(); head++) {
+            int node = toPrintNodes.get(head);
+            if (kept[node] && !graph.isRoot(node) && graph.hasDistance(node)) {
+                writeLabel(out, node);
+            }
+
+            for (int i = 0; i < graph.getCalleeCount(node); i++) {
+                int cn = graph.getCallee(node, i);
+
+                // add children to explore, also through nodes that are filtered out
+                if (!alreadyExplored[cn]) {
+                    toPrintNodes.add(cn);
+                    alreadyExplored[cn] = true;
+                }
+
+                if (kept[node] && kept[cn]) {
+                    //    "procSrc" -> "procDst";
+                    out.write("    \"");
+                    out.write(graph.printAbbrev(node));
+                    out.write("\" -> \"");
+                    out.write(graph.printAbbrev(cn));
+                    out.write("\";\n");
+                }
+            }
+        }
+        out.write("}");
+    }
+
+    private void writeLabel(Writer out, int node) throws IOException {
+        //    "proc" [label="proc\nd=1"];
+        String name = graph.printAbbrev(node);
+        out.write("    \"");
+        out.write(name);
+        out.write("\" [label=\"");
+        out.write(name);
+        out.write("\\nd=");
+        out.write(CompactGraph.toNumber(graph.getDistance(node)).toString());
+        out.write("\"];\n");
+    }
+
+    private void applyFilter(String filter) {
+        if (filter.equals(DISTANCE_FILTER)) {
+            for (int node = 0; node < graph.size(); node++) {
+                kept[node] &= graph.hasDistance(node);
+            }
+        } else if (filter.startsWith(TARGET_FILTER)) {
+            boolean[] near = neighborhood(Integer.parseInt(filter.substring(TARGET_FILTER.length())));
+            for (int node = 0; node < graph.size(); node++) {
+                kept[node] &= near[node];
+            }
+        } else if (filter.startsWith(PACKAGE_FILTER)) {
+            // whole package names only, com.example doesn't match com.examples
+            String packageName = filter.substring(PACKAGE_FILTER.length());
+            String prefix = packageName.endsWith(".") ? packageName : packageName + ".";
+            for (int node = 0; node < graph.size(); node++) {
+                kept[node] &= graph.isRoot(node) || graph.getInternalPath(node).startsWith(prefix);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown DOT filter: " + filter);
+        }
+    }
+
+    /**
+     * Breadth first search over callers and callees from the targets (distance 0), k levels deep.
+     */
+    private boolean[] neighborhood(int hops) {
+        boolean[] near = new boolean[graph.size()];
+        IntList frontier = new IntList();
+        for (int node = 0; node < graph.size(); node++) {
+            if (graph.hasDistance(node) && graph.getDistance(node) == 0) {
+                near[node] = true;
+                frontier.add(node);
+            }
+        }
+
+        for (int hop = 0; hop < hops && !frontier.isEmpty(); hop++) {
+            IntList nextFrontier = new IntList();
+            for (int i = 0; i < frontier.size(); i++) {
+                int node = frontier.get(i);
+                for (int j = 0; j < graph.getCalleeCount(node); j++) {
+                    visit(graph.getCallee(node, j), near, nextFrontier);
+                }
+                for (int j = 0; j < graph.getCallerCount(node); j++) {
+                    visit(graph.getCaller(node, j), near, nextFrontier);
+                }
+            }
+            frontier = nextFrontier;
+        }
+
+        return near;
+    }
+
+    private static void visit(int node, boolean[] near, IntList frontier) {
+        if (!near[node]) {
+            near[node] = true;
+            frontier.add(node);
+        }
+    }
+}
@@ -7,17 +7,43 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.MethodNode;
 
-import java.io.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 public class Jar {
     // Fields
     private static final Logger logger = LogManager.getLogger(Jar.class);
     private final String path;
+    // Number of workers used to read and parse class files, 1 = sequential
+    private final int threads;
+    // Only read class headers while loading, method bodies are parsed when first needed
+    private final boolean lazy;
+    // Persistent cache of parsed classes, null = disabled
+    private final String cachePath;
+    private ClassCache classCache;
+    // Worker pool, only present while loading in parallel
+    private ExecutorService executor;
+    // Parse results per JAR entry, registered in entry order once all classes are parsed
+    private final List<PendingEntry> pendingEntries;
+    // Mapped view of the JAR to read STORED nested JARs in place, only present while loading
+    private MappedJar mappedJar;
     @Getter
     private final Map<String, ExtendedClassNode> classes;
     @Getter
@@ -30,25 +56,66 @@ public class Jar {
     @Getter
     // class -> (abstract) class | subClass.name -> superClass | child -> parent
     private final Map<String, ExtendedClassNode> extensions;
+    @Getter
+    // annotation descriptor -> annotated classes
+    private final Map<String, List<ExtendedClassNode>> annotatedClasses;
+    @Getter
+    // annotation descriptor -> annotated methods with their class
+    private final Map<String, List<Map.Entry<ExtendedClassNode, MethodNode>>> annotatedMethods;
 
     // Constructor
     public Jar(String path) {
+        this(path, 1, false, null);
+    }
+
+    public Jar(String path, int threads, boolean lazy, String cachePath) {
         this.path = path;
+        this.threads = Math.max(1, threads);
+        this.lazy = lazy;
+        this.cachePath = cachePath;
+        this.pendingEntries = new ArrayList<>();
         this.classes = new HashMap<>();
         this.implementations = new HashMap<>();
         this.realImplementations = new HashMap<>();
         this.inheritors = new HashMap<>();
         this.extensions = new HashMap<>();
+        this.annotatedClasses = new HashMap<>();
+        this.annotatedMethods = new HashMap<>();
     }
 
     // Methods
     public void load() {
+        if (this.threads > 1) {
+            logger.info("Parsing classes with {} workers.", this.threads);
+            this.executor = Executors.newFixedThreadPool(this.threads);
+        }
+        if (this.cachePath != null) {
+            this.classCache = ClassCache.open(this.cachePath);
+            if (this.lazy) {
+                logger.info("Uncached classes are parsed completely to record their call sites.");
+            }
+        }
+
         try (ZipFile jarFile = new ZipFile(this.path)) {
+            this.mappedJar = MappedJar.open(this.path).orElse(null);
             loadJar(jarFile);
+            awaitPendingEntries();
         } catch (IOException e) {
             logger.error("Error while loading JAR!");
             logger.error(e.getMessage());
             System.exit(1);
+        } finally {
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+                this.executor = null;
+            }
+            this.mappedJar = null;
+        }
+
+        if (this.classCache != null) {
+            logger.info("Class cache: {} entries reused, {} parsed.", this.classCache.getHits(), this.classCache.getMisses());
+            this.classCache.save();
+            this.classCache = null;
         }
 
         // inverse inheritors to extensions
@@ -74,33 +141,148 @@ public class Jar {
             ZipEntry entry = entries.nextElement();
             String entryName = entry.getName();
 
+            if (!entryName.endsWith(".jar") && !entryName.endsWith(".class")) {
+                continue;
+            }
+
+            // a nested JAR is cached as a whole, so on a hit it isn't even read
+            String cacheKey = ClassCache.key(entry);
+            Optional<byte[]> cachedRecord = this.classCache == null
+                    ? Optional.empty()
+                    : this.classCache.lookup(cacheKey);
+
+            if (cachedRecord.isPresent()) {
+                this.pendingEntries.add(new PendingEntry(cacheKey, true));
+                submitClasses(() -> ClassCache.decode(cachedRecord.get()));
+                continue;
+            }
+
+            this.pendingEntries.add(new PendingEntry(cacheKey, false));
             if (entryName.endsWith(".jar")) {
                 parseJar(jarFile, entry);
-            } else if (entryName.endsWith(".class")) {
-                parseClass(jarFile, entry);
+            } else {
+                submitClasses(() -> parseClass(jarFile, entry).stream().toList());
+            }
+        }
+    }
+
+    /**
+     * Parses right away when loading sequentially, otherwise hands the work to the worker pool.
+     * Results belong to the last pending entry and are only registered in {@link #awaitPendingEntries()},
+     * in entry order, so both paths fill the hierarchy maps identically.
+     */
+    private void submitClasses(Supplier<List<ExtendedClassNode>> parser) {
+        PendingEntry pendingEntry = this.pendingEntries.get(this.pendingEntries.size() - 1);
+
+        if (this.executor == null) {
+            pendingEntry.classes.add(CompletableFuture.completedFuture(parser.get()));
+        } else {
+            pendingEntry.classes.add(this.executor.submit(parser::get));
+        }
+    }
+
+    private void awaitPendingEntries() {
+        try {
+            for (PendingEntry pendingEntry : this.pendingEntries) {
+                List<ExtendedClassNode> entryClasses = new ArrayList<>();
+                for (Future<List<ExtendedClassNode>> pendingClasses : pendingEntry.classes) {
+                    entryClasses.addAll(pendingClasses.get());
+                }
+
+                entryClasses.forEach(this::addClass);
+                if (this.classCache != null && !pendingEntry.cached) {
+                    this.classCache.store(pendingEntry.cacheKey, entryClasses);
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while parsing classes.");
+            System.exit(1);
+        } catch (ExecutionException e) {
+            logger.error("Error while parsing classes!");
+            logger.error(e.getCause().getMessage());
+            System.exit(1);
+        } finally {
+            this.pendingEntries.clear();
         }
     }
 
-    // Java JAR API can't handle InputStream 2 JarFile, have to convert to File.
+    /**
+     * Java JAR API can't handle InputStream 2 JarFile, so nested JARs are streamed instead of extracted to a file.
+     * STORED entries (the Spring Boot layout) are read straight from the mapped outer JAR.
+     * ZipInputStream can't read some JARs ZipFile can, e.g. STORED entries with a data descriptor, those still go
+     * through a temp file.
+     */
     private void parseJar(ZipFile jarFile, ZipEntry entry) throws IOException {
-        File tempFile = File.createTempFile("tmp", "jar");
-        FileOutputStream tempOut= new FileOutputStream(tempFile);
+        List<Future<List<ExtendedClassNode>>> entryClasses =
+                this.pendingEntries.get(this.pendingEntries.size() - 1).classes;
+        int submitted = entryClasses.size();
 
-        InputStream jIS = jarFile.getInputStream(entry);
-        IOUtils.copy(jIS, tempOut, (int) entry.getSize());
-        tempOut.close();
+        try {
+            // the mapping only covers the outer JAR, not one extracted below
+            Optional<InputStream> storedJar = this.mappedJar == null || !jarFile.getName().equals(this.path)
+                    ? Optional.empty()
+                    : this.mappedJar.openStored(entry);
 
-        ZipFile innerJar = new ZipFile(tempFile);
-        loadJar(innerJar);
+            try (InputStream jIS = storedJar.isPresent() ? storedJar.get() : jarFile.getInputStream(entry)) {
+                loadJar(new ZipInputStream(jIS));
+            }
+        } catch (ZipException e) {
+            logger.debug("Streaming nested JAR {} failed ({}), extracting it instead.", entry.getName(),
+                    e.getMessage());
+            // drop what was streamed before the failure, the whole JAR is read again
+            entryClasses.subList(submitted, entryClasses.size()).clear();
+            extractJar(jarFile, entry);
+        }
+    }
+
+    private void extractJar(ZipFile jarFile, ZipEntry entry) throws IOException {
+        File tempFile = File.createTempFile("tmp", "jar");
+        try {
+            try (InputStream jIS = jarFile.getInputStream(entry);
+                 FileOutputStream tempOut = new FileOutputStream(tempFile)) {
+                IOUtils.copy(jIS, tempOut);
+            }
 
-        if (!tempFile.delete()) {
-            logger.error("Couldn't delete tmp JAR.");
+            try (ZipFile innerJar = new ZipFile(tempFile)) {
+                Enumeration<? extends ZipEntry> entries = innerJar.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry innerEntry = entries.nextElement();
+                    String entryName = innerEntry.getName();
+
+                    if (entryName.endsWith(".jar")) {
+                        parseJar(innerJar, innerEntry);
+                    } else if (entryName.endsWith(".class")) {
+                        // read now, the temp file is gone before the workers get to it
+                        byte[] classFileBytes = IOUtils.toByteArray(innerJar.getInputStream(innerEntry));
+                        submitClasses(() -> parseClass(entryName, classFileBytes).stream().toList());
+                    }
+                }
+            }
+        } finally {
+            if (!tempFile.delete()) {
+                logger.error("Couldn't delete tmp JAR.");
+            }
         }
     }
 
+    private void loadJar(ZipInputStream jarStream) throws IOException {
+        ZipEntry entry;
+
+        while ((entry = jarStream.getNextEntry()) != null) {
+            String entryName = entry.getName();
 
-    private void parseClass(ZipFile jar, ZipEntry entry) {
+            if (entryName.endsWith(".jar")) {
+                // not closed, it would close the enclosing JAR
+                loadJar(new ZipInputStream(jarStream));
+            } else if (entryName.endsWith(".class")) {
+                byte[] classFileBytes = jarStream.readAllBytes();
+                submitClasses(() -> parseClass(entryName, classFileBytes).stream().toList());
+            }
+        }
+    }
+
+    private Optional<ExtendedClassNode> parseClass(ZipFile jar, ZipEntry entry) {
         byte[] classFileBytes;
 
         try {
@@ -108,16 +290,23 @@ public class Jar {
         } catch (IOException e) {
             logger.error("Error while reading class file: " + entry.getName());
             logger.error(e.getMessage());
-            return;
+            return Optional.empty();
         }
 
-        if (!validJavaClassMagic(Arrays.copyOfRange(classFileBytes, 0, 4))) {
-            logger.error("Mismatch magic in class: " + entry.getName());
-            return;
+        return parseClass(entry.getName(), classFileBytes);
+    }
+
+    private Optional<ExtendedClassNode> parseClass(String entryName, byte[] classFileBytes) {
+        if (classFileBytes.length < 4 || !validJavaClassMagic(Arrays.copyOfRange(classFileBytes, 0, 4))) {
+            logger.error("Mismatch magic in class: " + entryName);
+            return Optional.empty();
         }
 
         // parse bytes
-        ExtendedClassNode cn = getNode(classFileBytes);
+        return Optional.of(getNode(classFileBytes));
+    }
+
+    private void addClass(ExtendedClassNode cn) {
         this.classes.put(cn.name, cn);
 
         // extends a class (and not just Object...)
@@ -134,6 +323,21 @@ public class Jar {
                 implementations.get(interfase).add(cn);
             }
         }
+
+        // index annotations, used to find entry points without scanning every class
+        if (cn.visibleAnnotations != null) {
+            for (AnnotationNode annotation : cn.visibleAnnotations) {
+                annotatedClasses.computeIfAbsent(annotation.desc, k -> new ArrayList<>()).add(cn);
+            }
+        }
+        for (MethodNode mn : cn.methods) {
+            if (mn.visibleAnnotations != null) {
+                for (AnnotationNode annotation : mn.visibleAnnotations) {
+                    annotatedMethods.computeIfAbsent(annotation.desc, k -> new ArrayList<>())
+                            .add(new AbstractMap.SimpleEntry<>(cn, mn));
+                }
+            }
+        }
     }
 
     private ExtendedClassNode getNode(byte[] bytes) {
@@ -142,7 +346,13 @@ public class Jar {
         try {
             // could be useful, but degrades performance quite a lot
 //            cr.accept(cn, ClassReader.EXPAND_FRAMES);
-            cr.accept(cn, 0);
+            if (this.lazy && this.classCache == null) {
+                // headers, annotations and supertypes suffice for the hierarchy and entry points
+                cr.accept(cn, ClassReader.SKIP_CODE);
+                cn.deferCode(bytes);
+            } else {
+                cr.accept(cn, 0);
+            }
         } catch (Exception e) {
             logger.error("Failed to parse class with ASM reader.");
             logger.error(e.getMessage());
@@ -160,4 +370,20 @@ public class Jar {
 
         return magic == CAFEBABE;
     }
+
+    /**
+     * Classes of one JAR entry, a single class file or a whole nested JAR.
+     */
+    private static class PendingEntry {
+        private final String cacheKey;
+        // read from the cache, so there is nothing to store
+        private final boolean cached;
+        private final List<Future<List<ExtendedClassNode>>> classes;
+
+        private PendingEntry(String cacheKey, boolean cached) {
+            this.cacheKey = cacheKey;
+            this.cached = cached;
+            this.classes = new ArrayList<>();
+        }
+    }
 }
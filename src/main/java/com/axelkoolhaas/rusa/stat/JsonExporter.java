@@ -0,0 +1,133 @@
+package com.axelkoolhaas.rusa.stat;
+
+import com.axelkoolhaas.rusa.model.CompactGraph;
+import com.axelkoolhaas.rusa.model.IntList;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.axelkoolhaas.rusa.model.CompactGraph.ROOT;
+
+/**
+ * Writes the distance tree read by the agent ({@link com.axelkoolhaas.rusa.model.json.JsonNodes}).
+ * Nodes are grouped per class and method name by node id only, the JSON itself is streamed to the file.
+ * The output is the same as serializing the JsonNodes model with Gson.
+ */
+public class JsonExporter {
+    // Constants
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Fields
+    private final CompactGraph graph;
+
+    // Constructor
+    public JsonExporter(CompactGraph graph) {
+        this.graph = graph;
+    }
+
+    // Methods
+    public void export(String path) throws IOException {
+        Map<String, Map<String, IntList>> classes = groupNodes(graph);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE);
+             JsonWriter writer = new JsonWriter(out)) {
+            // same escaping as Gson#toJson
+            writer.setHtmlSafe(true);
+
+            writer.beginObject().name("classes").beginArray();
+            for (Map<String, IntList> methods : classes.values()) {
+                writeClass(writer, methods);
+            }
+            writer.endArray().endObject();
+        }
+    }
+
+    /**
+     * Breadth first search from the entry points, collects the nodes per class and method name in the order they
+     * are visited. A node is listed once per visit, its callees are written for every visit.
+     * The first node of a method decides its distance.
+     */
+    static Map<String, Map<String, IntList>> groupNodes(CompactGraph graph) {
+        Map<String, Map<String, IntList>> classes = new LinkedHashMap<>();
+        boolean[] alreadyExplored = new boolean[graph.size()];
+
+        IntList toPrintNodes = new IntList();
+        for (int i = 0; i < graph.getCalleeCount(ROOT); i++) {
+            toPrintNodes.add(graph.getCallee(ROOT, i));
+        }
+
+        // the queue is only appended to, head is the next node to visit
+        for (int head = 0; head < toPrintNodes.size(); head++) {
+            int node = toPrintNodes.get(head);
+
+            classes.computeIfAbsent(graph.getType(node) + ' ' + graph.getInternalPath(node),
+                            k -> new LinkedHashMap<>())
+                    .computeIfAbsent(graph.getMethod(node).name, k -> new IntList(1))
+                    .add(node);
+
+            // add children to explore
+            for (int i = 0; i < graph.getCalleeCount(node); i++) {
+                int cn = graph.getCallee(node, i);
+                if (!alreadyExplored[cn]) {
+                    toPrintNodes.add(cn);
+                    alreadyExplored[cn] = true;
+                }
+            }
+        }
+
+        return classes;
+    }
+
+    private void writeClass(JsonWriter writer, Map<String, IntList> methods) throws IOException {
+        int first = methods.values().iterator().next().get(0);
+
+        writer.beginObject();
+        writer.name("type").value(graph.getType(first));
+        writer.name("name").value(graph.getInternalPath(first));
+
+        writer.name("methods").beginArray();
+        for (IntList nodes : methods.values()) {
+            writeMethod(writer, nodes);
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
+
+    private void writeMethod(JsonWriter writer, IntList nodes) throws IOException {
+        // the first visit decides the distance
+        int first = nodes.get(0);
+
+        writer.beginObject();
+        writer.name("name").value(graph.getMethod(first).name);
+        if (graph.hasDistance(first)) {
+            writer.name("distance").value(CompactGraph.toNumber(graph.getDistance(first)));
+        }
+
+        writer.name("calls").beginArray();
+        for (int i = 0; i < nodes.size(); i++) {
+            int node = nodes.get(i);
+            for (int j = 0; j < graph.getCalleeCount(node); j++) {
+                int cn = graph.getCallee(node, j);
+                writer.beginObject();
+                writer.name("name").value(graph.getInternalPath(cn));
+                writer.name("method").value(graph.getMethod(cn).name);
+                writer.endObject();
+            }
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
+}
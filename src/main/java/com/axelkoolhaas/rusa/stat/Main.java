@@ -13,7 +13,8 @@ public class Main {
         CommandLineParser commandLineParser = new CommandLineParser(getMainJarName());
         commandLineParser.parseArgs(args);
 
-        Jar jar = new Jar(commandLineParser.getJarPath());
+        Jar jar = new Jar(commandLineParser.getJarPath(), commandLineParser.getThreads(),
+                commandLineParser.isLazy(), commandLineParser.getCachePath());
         logger.info("Loading JAR.");
         jar.load();
         logger.info("Loaded.");
@@ -26,19 +27,24 @@ public class Main {
 //        var r = jar.getRealImplementations();
 //        var h = jar.getInheritors();
 
-        CallGraph callgraph = new CallGraph(jar);
+        CallGraph callgraph = new CallGraph(jar, commandLineParser.getThreads());
         logger.info("Constructing call graph.");
         callgraph.construct();
 
-        logger.info("Printing dot call graph.");
-        callgraph.printDotGraph("callgraph.dot");
-//        callgraph.printDotGraph(null);
-
         logger.info("Calculating heuristic");
-        callgraph.calculateDistance(commandLineParser.getTargets());
+        callgraph.calculateDistance(commandLineParser.getTargets(), commandLineParser.getMerge());
+
+        if (commandLineParser.getDotPath() != null) {
+            logger.info("Printing dot call graph.");
+            callgraph.printDotGraph(commandLineParser.getDotPath(), commandLineParser.getDotFilters());
+//            callgraph.printDotGraph(null, commandLineParser.getDotFilters());
+        }
 
         logger.info("Printing JSON distance tree.");
         callgraph.saveJson("distance_tree.json");
+
+        logger.info("Printing binary distance table.");
+        callgraph.saveDistanceTable("distance_tree.bin");
     }
 
     public static String getMainJarName() {
@@ -0,0 +1,183 @@
+package com.axelkoolhaas.rusa.stat;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+
+/**
+ * Read-only memory-mapped view of a JAR on disk.
+ * Locates the raw data of STORED entries through the central directory, so nested JARs (e.g. Spring Boot's
+ * BOOT-INF/lib) can be read in place instead of being copied out of the outer archive first.
+ */
+public class MappedJar {
+    // Constants
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    // Fields
+    private static final Logger logger = LogManager.getLogger(MappedJar.class);
+    private final ByteBuffer buffer;
+    // entry name -> offset of its local file header, STORED entries only
+    private final Map<String, Integer> storedEntries;
+
+    // Constructor
+    private MappedJar(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.storedEntries = new HashMap<>();
+    }
+
+    // Methods
+    /**
+     * Maps the archive at the given path.
+     * @return empty if the file can't be mapped or uses a layout we don't handle (e.g. ZIP64), callers then
+     * fall back to streaming
+     */
+    public static Optional<MappedJar> open(String path) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return Optional.empty();
+            }
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            MappedJar mappedJar = new MappedJar(mapped);
+            return mappedJar.readCentralDirectory() ? Optional.of(mappedJar) : Optional.empty();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            logger.warn("Couldn't map JAR, nested JARs will be streamed: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns a stream over the raw bytes of a STORED entry, backed by the mapping.
+     */
+    public Optional<InputStream> openStored(ZipEntry entry) {
+        Integer localHeader = this.storedEntries.get(entry.getName());
+        if (localHeader == null || entry.getMethod() != ZipEntry.STORED || entry.getSize() < 0
+                || this.buffer.getInt(localHeader) != LOC_SIGNATURE) {
+            return Optional.empty();
+        }
+
+        int nameLength = Short.toUnsignedInt(this.buffer.getShort(localHeader + 26));
+        int extraLength = Short.toUnsignedInt(this.buffer.getShort(localHeader + 28));
+        int dataOffset = localHeader + LOC_SIZE + nameLength + extraLength;
+
+        if ((long) dataOffset + entry.getSize() > this.buffer.limit()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new ByteBufferInputStream(this.buffer.slice(dataOffset, (int) entry.getSize())));
+    }
+
+    private boolean readCentralDirectory() {
+        int eocd = findEndOfCentralDirectory();
+        if (eocd < 0) {
+            return false;
+        }
+
+        int entryCount = Short.toUnsignedInt(this.buffer.getShort(eocd + 10));
+        long directorySize = Integer.toUnsignedLong(this.buffer.getInt(eocd + 12));
+        long directoryOffset = Integer.toUnsignedLong(this.buffer.getInt(eocd + 16));
+        if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            // ZIP64
+            return false;
+        }
+
+        // Executable (Spring Boot) JARs may have a launch script prepended, offsets are relative to the zip data
+        int delta = (int) (eocd - directorySize - directoryOffset);
+        int position = (int) (directoryOffset + delta);
+
+        for (int i = 0; i < entryCount; i++) {
+            if (this.buffer.getInt(position) != CEN_SIGNATURE) {
+                return false;
+            }
+
+            int method = Short.toUnsignedInt(this.buffer.getShort(position + 10));
+            int nameLength = Short.toUnsignedInt(this.buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(this.buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(this.buffer.getShort(position + 32));
+            long localHeader = Integer.toUnsignedLong(this.buffer.getInt(position + 42));
+
+            if (method == ZipEntry.STORED && localHeader != 0xFFFFFFFFL) {
+                byte[] name = new byte[nameLength];
+                this.buffer.get(position + CEN_SIZE, name);
+                this.storedEntries.put(new String(name, StandardCharsets.UTF_8), (int) (localHeader + delta));
+            }
+
+            position += CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return true;
+    }
+
+    private int findEndOfCentralDirectory() {
+        int lowest = Math.max(0, this.buffer.limit() - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for (int position = this.buffer.limit() - EOCD_SIZE; position >= lowest; position--) {
+            if (this.buffer.getInt(position) == EOCD_SIGNATURE) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Minimal InputStream over a ByteBuffer, the buffer's position is used as the stream position.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? Byte.toUnsignedInt(this.buffer.get()) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+            this.buffer.position(this.buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.axelkoolhaas.rusa.stat;
+
+import com.axelkoolhaas.rusa.model.ExtendedClassNode;
+import com.axelkoolhaas.rusa.model.IntList;
+import com.axelkoolhaas.rusa.model.cmd.CommandLineTarget;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+
+/**
+ * Maps methods in the call graph to their node ids, so targets are resolved with a lookup instead of a search.
+ * Keys are {@code internal/class/Name.method} and {@code internal/class/Name.method(desc)}; a key can map to
+ * several nodes, e.g. overloads or the same method reached through different owners.
+ */
+public class TargetIndex {
+    // Constants
+    private static final int MAX_SUGGESTIONS = 5;
+
+    // Fields
+    private final Map<String, IntList> nodes;
+
+    // Constructor
+    public TargetIndex() {
+        this.nodes = new HashMap<>();
+    }
+
+    // Methods
+    public void add(int node, ExtendedClassNode owner, MethodNode method) {
+        String key = owner.name + '.' + method.name;
+        // descriptors start with '(', so both kinds of keys can share one map
+        this.nodes.computeIfAbsent(key, k -> new IntList(1)).add(node);
+        this.nodes.computeIfAbsent(key + method.desc, k -> new IntList(1)).add(node);
+    }
+
+    /**
+     * @return node ids of the target, empty if it isn't part of the graph
+     */
+    public int[] lookup(CommandLineTarget target) {
+        IntList targetNodes = this.nodes.get(key(target));
+        return targetNodes == null ? new int[0] : targetNodes.toArray();
+    }
+
+    /**
+     * Finds methods in the graph with a name close to a target that wasn't found: other methods of the same class,
+     * the same method in other classes and matches that only differ in case.
+     * Only used to report a missing target, so it's fine to walk all keys.
+     */
+    public List<String> suggest(CommandLineTarget target) {
+        String className = target.getInternalClassName();
+        String methodName = target.getMethodName();
+        String wanted = (className + '.' + methodName).toLowerCase(Locale.ROOT);
+
+        SortedSet<String> suggestions = new TreeSet<>();
+        for (String key : this.nodes.keySet()) {
+            if (key.indexOf('(') >= 0) {
+                // class and method name match but the descriptor doesn't
+                if (target.getDescriptor() != null && key.startsWith(className + '.' + methodName + '(')) {
+                    suggestions.add(format(key));
+                }
+                continue;
+            }
+
+            int separator = key.lastIndexOf('.');
+            if (key.toLowerCase(Locale.ROOT).equals(wanted)
+                    || key.substring(separator + 1).equals(methodName)
+                    || key.substring(0, separator).equals(className)) {
+                suggestions.add(format(key));
+            }
+        }
+
+        return suggestions.stream().limit(MAX_SUGGESTIONS).toList();
+    }
+
+    private static String key(CommandLineTarget target) {
+        String key = target.getInternalClassName() + '.' + target.getMethodName();
+        return target.getDescriptor() == null ? key : key + target.getDescriptor();
+    }
+
+    /**
+     * Formats a key the way a target is given on the command line.
+     */
+    private static String format(String key) {
+        int descriptor = key.indexOf('(');
+        String name = descriptor < 0 ? key : key.substring(0, descriptor);
+        int separator = name.lastIndexOf('.');
+        String target = name.substring(0, separator).replace('/', '.') + ':' + name.substring(separator + 1);
+        return descriptor < 0 ? target : target + ':' + key.substring(descriptor);
+    }
+}
@@ -0,0 +1,43 @@
+package com.axelkoolhaas.rusa.dyn;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RequestFeedbackTest {
+
+    @Test
+    void countsSurviveGrowing() {
+        RequestFeedback feedback = new RequestFeedback(1);
+
+        // the table starts with 16 slots and grows at 8 distinct ids, so this grows it twice;
+        // spread ids so slots move when the table grows
+        int methods = 20;
+        for (int i = 0; i < methods; i++) {
+            for (int hit = 0; hit <= i; hit++) {
+                feedback.add(i * 7, i);
+            }
+        }
+
+        Feedback drained = feedback.drain();
+        assertEquals(methods, drained.size());
+        for (int i = 0; i < methods; i++) {
+            assertEquals(i * 7, drained.getId(i));
+            assertEquals(i + 1, drained.getHits(i), "hits of id " + i * 7);
+        }
+    }
+
+    @Test
+    void drainResets() {
+        RequestFeedback feedback = new RequestFeedback(1);
+        feedback.add(3, 0);
+        feedback.drain();
+        feedback.add(5, 1);
+        feedback.add(5, 1);
+
+        Feedback drained = feedback.drain();
+        assertEquals(1, drained.size());
+        assertArrayEquals(new int[] {5, 2}, new int[] {drained.getId(0), drained.getHits(0)});
+    }
+}
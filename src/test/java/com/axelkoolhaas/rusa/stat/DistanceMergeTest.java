@@ -0,0 +1,35 @@
+package com.axelkoolhaas.rusa.stat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.axelkoolhaas.rusa.model.CompactGraph.UNREACHABLE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class DistanceMergeTest {
+
+    // nodes: a target of the first target, next to both targets, next to one and far from the other, unreachable
+    private static final List<int[]> DISTANCES = List.of(
+            new int[] {0, 1, 1, UNREACHABLE},
+            new int[] {2, 1, 3, UNREACHABLE});
+
+    @Test
+    void harmonicIsInverseOfInverseSum() {
+        double[] merged = DistanceMerge.HARMONIC.merge(DISTANCES);
+
+        // (1/1 + 1/1)^-1 and (1/1 + 1/3)^-1, below 1 but not a target
+        assertArrayEquals(new double[] {0, 0.5, 0.75, UNREACHABLE}, merged, 1e-9);
+    }
+
+    @Test
+    void minTakesClosestTarget() {
+        assertArrayEquals(new double[] {0, 1, 1, UNREACHABLE}, DistanceMerge.MIN.merge(DISTANCES));
+    }
+
+    @Test
+    void singleTargetIsUnchanged() {
+        assertArrayEquals(new double[] {2, 1, 3, UNREACHABLE},
+                DistanceMerge.HARMONIC.merge(List.of(DISTANCES.get(1))));
+    }
+}